@@ -0,0 +1,319 @@
+package com.manager;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Keeps bitmaps that are no longer shown so thumbnails can be decoded and
+ * drawn into them instead of into new ones. Scrolling through a folder of
+ * photos then makes far less garbage. Only ThumbnailCreator puts bitmaps
+ * in, the images it decoded to scale once their thumbnail is drawn, as
+ * nothing else holds on to those. Thumbnails are never pooled, a row may
+ * still show one the cache has let go of.
+ * <br>
+ * <br>
+ * Before KitKat a bitmap can only be decoded into if it is exactly the
+ * size of the image and the image is not sampled down, so bitmaps are
+ * pooled by their width, height and config. From KitKat on any bitmap
+ * with enough bytes will do. Bitmaps are then pooled by size class, the
+ * largest power of two not above their bytes, and reconfigured to the
+ * size asked for.
+ * <br>
+ * <br>
+ * The pool is bounded in bytes, a thirty-second of the heap, and forgets
+ * the bitmaps put in longest ago first. Bitmaps are never recycled here,
+ * since one put in may still be drawn somewhere.
+ */
+public class BitmapPool {
+    private static BitmapPool mInstance = null;
+
+    private final int mMaxSize;
+    private final boolean mAnySize =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+
+    private final HashMap<Long, ArrayList<Bitmap>> mFree = new HashMap<Long, ArrayList<Bitmap>>();
+    /* every bitmap in mFree, the one put in longest ago first */
+    private final LinkedHashSet<Bitmap> mOrder = new LinkedHashSet<Bitmap>();
+    private int mSize = 0;
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mEvictions = 0;
+
+    private BitmapPool(int maxBytes) {
+        mMaxSize = maxBytes;
+    }
+
+    /**
+     * @return	the pool shared by the whole app
+     */
+    public static synchronized BitmapPool getInstance() {
+        if(mInstance == null)
+            mInstance = new BitmapPool((int)Math.min(Runtime.getRuntime().maxMemory() / 32,
+                    Integer.MAX_VALUE));
+
+        return mInstance;
+    }
+
+    /**
+     * Takes a mutable bitmap of the given size out of the pool. Its pixels
+     * are whatever it held before.
+     *
+     * @param width		the width wanted
+     * @param height	the height wanted
+     * @param config	the config wanted
+     * @return	the bitmap, or null if the pool has none that fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+
+        if(bitmap == null) {
+            mMisses++;
+            return null;
+        }
+
+        mHits++;
+        if(mAnySize && (bitmap.getWidth() != width || bitmap.getHeight() != height ||
+                bitmap.getConfig() != config))
+            bitmap.reconfigure(width, height, config);
+
+        return bitmap;
+    }
+
+    /**
+     * Gives a bitmap nobody draws anymore to the pool. Bitmaps that cannot
+     * be reused, immutable or recycled ones, are ignored.
+     *
+     * @param bitmap	the bitmap, or null
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if(bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() ||
+                bitmap.getConfig() == null || mOrder.contains(bitmap))
+            return;
+
+        int bytes = bytes(bitmap);
+        if(bytes > mMaxSize)
+            return;
+
+        Long key = key(bitmap);
+        ArrayList<Bitmap> free = mFree.get(key);
+
+        if(free == null) {
+            free = new ArrayList<Bitmap>();
+            mFree.put(key, free);
+        }
+
+        free.add(bitmap);
+        mOrder.add(bitmap);
+        mSize += bytes;
+
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Decodes a file with options, into a pooled bitmap when one fits. The
+     * bitmap returned is mutable, so it can go back into the pool.
+     *
+     * @param path		the file
+     * @param options	the options to decode with, outWidth and outHeight
+     * 					must hold the size of the image
+     * @return	the image, or null if it could not be decoded
+     */
+    public Bitmap decodeFile(String path, BitmapFactory.Options options) {
+        lend(options);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+
+        } catch (IllegalArgumentException e) {
+            /* the image could not be decoded into the bitmap lent */
+            put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, options);
+        }
+
+        return decoded(bitmap, options);
+    }
+
+    /**
+     * Decodes an image held in memory, into a pooled bitmap when one fits.
+     * The bitmap returned is mutable, so it can go back into the pool.
+     *
+     * @return	the image, or null if it could not be decoded
+     */
+    public Bitmap decodeByteArray(byte[] data, int offset, int length) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        options.inJustDecodeBounds = false;
+        lend(options);
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+
+        } catch (IllegalArgumentException e) {
+            put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+
+        return decoded(bitmap, options);
+    }
+
+    /**
+     * Gives memory back when the system asks for it, the same way
+     * ThumbnailCache does.
+     *
+     * @param level	the level passed to ComponentCallbacks2.onTrimMemory
+     */
+    public synchronized void trimMemory(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            trimToSize(0);
+
+        else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            trimToSize(mMaxSize / 2);
+    }
+
+    /** @return	the bytes held now */
+    public synchronized int getSize() { return mSize; }
+
+    /** @return	the most bytes held */
+    public int getMaxSize() { return mMaxSize; }
+
+    /** @return	how many times get() found a bitmap, decodes included */
+    public synchronized int getHitCount() { return mHits; }
+
+    /** @return	how many times get() found nothing, decodes included */
+    public synchronized int getMissCount() { return mMisses; }
+
+    /** @return	how many bitmaps were forgotten to stay within the size */
+    public synchronized int getEvictionCount() { return mEvictions; }
+
+    /* (non-Javadoc)
+     * Sets options up to decode into a pooled bitmap, if the platform can
+     * decode this image into one.
+     */
+    private void lend(BitmapFactory.Options options) {
+        Bitmap.Config config = options.inPreferredConfig != null ?
+                options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        int sample = Math.max(options.inSampleSize, 1);
+
+        options.inMutable = true;
+
+        if(!mAnySize && sample > 1)
+            return;
+
+        /* rounded up, so the bitmap is big enough however the decoder rounds */
+        options.inBitmap = get((options.outWidth + sample - 1) / sample,
+                (options.outHeight + sample - 1) / sample, config);
+    }
+
+    /* (non-Javadoc)
+     * The bitmap lent to a decode that failed, or was cancelled, goes back
+     * into the pool.
+     */
+    private Bitmap decoded(Bitmap bitmap, BitmapFactory.Options options) {
+        if(bitmap == null)
+            put(options.inBitmap);
+
+        options.inBitmap = null;
+        return bitmap;
+    }
+
+    private Bitmap take(int width, int height, Bitmap.Config config) {
+        if(!mAnySize)
+            return takeFrom(exactKey(width, height, config), 0);
+
+        int bytes = width * height * bytesPerPixel(config);
+        long floor = Integer.highestOneBit(bytes);
+
+        /* a bitmap of the class below only fits if it is big enough itself */
+        Bitmap bitmap = takeFrom(floor, bytes);
+        if(bitmap == null && floor != bytes)
+            bitmap = takeFrom(floor * 2, 0);
+        if(bitmap == null)
+            bitmap = takeFrom(floor * 4, 0);
+
+        return bitmap;
+    }
+
+    /*
+     * Takes the bitmap put in last under key that has at least bytes.
+     */
+    private Bitmap takeFrom(long key, int bytes) {
+        ArrayList<Bitmap> free = mFree.get(key);
+
+        if(free == null)
+            return null;
+
+        for(int i = free.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = free.get(i);
+
+            if(bytes(bitmap) >= bytes) {
+                free.remove(i);
+                if(free.isEmpty())
+                    mFree.remove(key);
+                mOrder.remove(bitmap);
+                mSize -= bytes(bitmap);
+
+                return bitmap;
+            }
+        }
+
+        return null;
+    }
+
+    private void trimToSize(int maxBytes) {
+        Iterator<Bitmap> oldest = mOrder.iterator();
+
+        while(mSize > maxBytes && oldest.hasNext()) {
+            Bitmap bitmap = oldest.next();
+            Long key = key(bitmap);
+            ArrayList<Bitmap> free = mFree.get(key);
+
+            oldest.remove();
+            free.remove(bitmap);
+            if(free.isEmpty())
+                mFree.remove(key);
+
+            mSize -= bytes(bitmap);
+            mEvictions++;
+        }
+    }
+
+    private Long key(Bitmap bitmap) {
+        if(!mAnySize)
+            return exactKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+
+        return (long)Integer.highestOneBit(bytes(bitmap));
+    }
+
+    private static long exactKey(int width, int height, Bitmap.Config config) {
+        return ((long)width << 32) | ((long)height << 8) | config.ordinal();
+    }
+
+    private int bytes(Bitmap bitmap) {
+        return mAnySize ? bitmap.getAllocationByteCount() : bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if(config == Bitmap.Config.ALPHA_8)
+            return 1;
+        if(config == Bitmap.Config.ARGB_8888)
+            return 4;
+        return 2;
+    }
+}
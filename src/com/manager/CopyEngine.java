@@ -0,0 +1,218 @@
+package com.manager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.util.Log;
+
+/**
+ * Copies the contents of a single file using NIO channels. Like FileManager
+ * this class has no reference to any GUI activity.
+ * <br>
+ * <br>
+ * Large files are moved with FileChannel.transferTo so the data never has to
+ * be copied through the Java heap. Small files, and any file the platform
+ * refuses to transfer, are copied through a large direct ByteBuffer which is
+ * kept per thread so it is only allocated once.
+ */
+public class CopyEngine {
+    /* values returned from copy() describing which path was taken */
+    public static final int STRATEGY_FAILED = 			-1;
+    public static final int STRATEGY_TRANSFER = 		0x01;
+    public static final int STRATEGY_DIRECT_BUFFER = 	0x02;
+
+    /* files at least this big are handed to transferTo */
+    private static final long TRANSFER_THRESHOLD = 		256 * 1024;
+    /* some kernels cap a single transfer, so never ask for more than this */
+    private static final long TRANSFER_CHUNK = 			8 * 1024 * 1024;
+    private static final int DIRECT_BUFFER = 			256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> sBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(DIRECT_BUFFER);
+        }
+    };
+
+    /**
+     * Copies the file src to dest, replacing anything already at dest.
+     *
+     * @param src	the file to read
+     * @param dest	the file to create
+     * @return	STRATEGY_TRANSFER or STRATEGY_DIRECT_BUFFER depending on how the
+     * 			data was copied, or STRATEGY_FAILED if the copy failed.
+     */
+    public static int copy(File src, File dest) {
+        return copy(src, dest, null);
+    }
+
+    /**
+     * Copies the file src to dest, replacing anything already at dest, and
+     * adds the bytes to tracker as they are written.
+     *
+     * @param src		the file to read
+     * @param dest		the file to create
+     * @param tracker	counts the bytes copied, may be null
+     * @return	one of the STRATEGY constants
+     */
+    public static int copy(File src, File dest, ProgressTracker tracker) {
+        FileInputStream i_stream = null;
+        FileOutputStream o_stream = null;
+        int strategy;
+
+        try {
+            i_stream = new FileInputStream(src);
+            o_stream = new FileOutputStream(dest);
+
+            FileChannel in = i_stream.getChannel();
+            FileChannel out = o_stream.getChannel();
+            long size = in.size();
+
+            if(size >= TRANSFER_THRESHOLD && transfer(in, out, size, tracker))
+                strategy = STRATEGY_TRANSFER;
+
+            else {
+                bufferCopy(in, out, in.position(), out.position(), tracker);
+                strategy = STRATEGY_DIRECT_BUFFER;
+            }
+
+        } catch (IOException e) {
+            Log.e("IOException", "copy " + src.getPath() + ": " + e.getMessage());
+            strategy = STRATEGY_FAILED;
+
+        } finally {
+            close(i_stream);
+            if(!close(o_stream))
+                strategy = STRATEGY_FAILED;
+        }
+
+        return strategy;
+    }
+
+    /**
+     * Copies count bytes of in, starting at position, to the current position
+     * of out. transferTo is tried first and the direct buffer finishes the
+     * range if the channel stops accepting transfers.
+     *
+     * @param in		the channel to read
+     * @param out		the channel to write, already positioned
+     * @param position	the offset in in to start at
+     * @param count		the number of bytes to copy
+     * @param tracker	counts the bytes copied, may be null
+     * @throws IOException if in ends before count bytes were read
+     */
+    public static void copyRange(FileChannel in, FileChannel out, long position, long count,
+                                 ProgressTracker tracker) throws IOException {
+        long end = position + count;
+
+        while(position < end) {
+            long n = in.transferTo(position, Math.min(TRANSFER_CHUNK, end - position), out);
+
+            if(n <= 0)
+                break;
+            position += n;
+            if(tracker != null)
+                tracker.addBytes(n);
+        }
+
+        ByteBuffer buffer = sBuffer.get();
+        in.position(position);
+
+        while(position < end) {
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), end - position));
+
+            int read = in.read(buffer);
+            if(read == -1)
+                throw new IOException("unexpected end of file");
+
+            buffer.flip();
+            while(buffer.hasRemaining())
+                out.write(buffer);
+            position += read;
+            if(tracker != null)
+                tracker.addBytes(read);
+        }
+    }
+
+    /**
+     * Returns a readable name for one of the STRATEGY constants.
+     *
+     * @param strategy	the value returned from copy()
+     * @return	the name of the strategy
+     */
+    public static String strategyName(int strategy) {
+        switch(strategy) {
+            case STRATEGY_TRANSFER:		 return "transferTo";
+            case STRATEGY_DIRECT_BUFFER: return "direct buffer";
+        }
+        return "failed";
+    }
+
+    /* (non-Javadoc)
+     * Moves size bytes from in to out with transferTo. Returns false if the
+     * channel stopped making progress, in which case both channels are left
+     * positioned after the bytes that were transferred so the caller can
+     * finish with bufferCopy.
+     */
+    private static boolean transfer(FileChannel in, FileChannel out, long size,
+                                    ProgressTracker tracker) throws IOException {
+        long pos = 0;
+
+        while(pos < size) {
+            long count = in.transferTo(pos, Math.min(TRANSFER_CHUNK, size - pos), out);
+
+            if(count <= 0) {
+                in.position(pos);
+                return false;
+            }
+            pos += count;
+            if(tracker != null)
+                tracker.addBytes(count);
+        }
+
+        return true;
+    }
+
+    /* (non-Javadoc)
+     * Copies whatever is left of in, starting at inPos, into out at outPos using
+     * the direct buffer of the calling thread.
+     */
+    private static void bufferCopy(FileChannel in, FileChannel out, long inPos, long outPos,
+                                   ProgressTracker tracker) throws IOException {
+        ByteBuffer buffer = sBuffer.get();
+        int read;
+
+        in.position(inPos);
+        out.position(outPos);
+        buffer.clear();
+
+        while((read = in.read(buffer)) != -1) {
+            buffer.flip();
+            while(buffer.hasRemaining())
+                out.write(buffer);
+            buffer.clear();
+            if(tracker != null)
+                tracker.addBytes(read);
+        }
+    }
+
+    private static boolean close(Closeable stream) {
+        if(stream == null)
+            return true;
+
+        try {
+            stream.close();
+            return true;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.manager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+
+import android.util.Log;
+
+/**
+ * A small text file kept next to the destination of a copy that records how
+ * far the copy got, so an interrupted copy can be continued instead of being
+ * started over. While the journal exists the destination is known to be
+ * incomplete.
+ * <br>
+ * <br>
+ * The journal is append only. The first line names the source being copied,
+ * every other line is either
+ * <br>"D &lt;size&gt; &lt;mtime&gt; &lt;path&gt;" a file that was copied completely, or
+ * <br>"O &lt;offset&gt; &lt;size&gt; &lt;mtime&gt; &lt;path&gt;" the first offset bytes of a file are on disk.
+ * <br>Paths are relative to the destination directory. When a path shows up
+ * more than once the last line wins. Size and mtime are those of the source
+ * file when it was copied; if the source no longer has them the progress
+ * recorded for it is ignored and the file is copied again from the start.
+ */
+public class CopyJournal {
+    private static final String SUFFIX = ".copyjournal";
+    private static final String SOURCE = "S2 ";
+    private static final String DONE = "D ";
+    private static final String OFFSET = "O ";
+    /* done lines written between syncs of the journal */
+    private static final int BATCH =		64;
+
+    private final File mFile;
+    private final HashMap<String, Progress> mProgress = new HashMap<String, Progress>();
+    private FileOutputStream mOut;
+    private boolean mResuming = false;
+    private int mUnsynced = 0;
+
+    /*
+     * How far one file got, and the source it was copied from.
+     */
+    private static class Progress {
+        final long size;
+        final long modified;
+        final long offset;
+        final boolean done;
+
+        Progress(long size, long modified, long offset, boolean done) {
+            this.size = size;
+            this.modified = modified;
+            this.offset = offset;
+            this.done = done;
+        }
+
+        boolean matches(File src) {
+            return src.length() == size && src.lastModified() == modified;
+        }
+    }
+
+    /**
+     * Opens the journal for copying src into destDir. If a journal for the
+     * same source is already there its progress is loaded and isResuming()
+     * returns true, otherwise a new journal is started.
+     *
+     * @param src		the file or folder being copied
+     * @param destDir	the directory it is copied into
+     * @throws IOException if the journal can not be written
+     */
+    public CopyJournal(File src, File destDir) throws IOException {
+        mFile = new File(destDir, "." + src.getName() + SUFFIX);
+
+        if(mFile.exists())
+            mResuming = load(src.getPath());
+
+        if(!mResuming)
+            mProgress.clear();
+
+        mOut = new FileOutputStream(mFile, mResuming);
+        if(!mResuming)
+            append(SOURCE + src.getPath(), true);
+    }
+
+    /**
+     * Tells if there is a journal for src in destDir, meaning a copy of src
+     * into destDir was started and did not finish.
+     */
+    public static boolean exists(File src, File destDir) {
+        return new File(destDir, "." + src.getName() + SUFFIX).exists();
+    }
+
+    /**
+     * Deletes the journal for src in destDir, if there is one, e.g. when the
+     * unfinished copy it belongs to was removed.
+     */
+    public static void delete(File src, File destDir) {
+        File file = new File(destDir, "." + src.getName() + SUFFIX);
+
+        if(file.exists() && !file.delete())
+            Log.e("CopyJournal", "could not delete " + file.getPath());
+    }
+
+    /**
+     * @return	true if this journal continues an earlier copy
+     */
+    public boolean isResuming() {
+        return mResuming;
+    }
+
+    /**
+     * @param path	the path relative to the destination directory
+     * @param src	the file being copied to path
+     * @return	true if the file was already copied completely from src as it
+     * 			is now
+     */
+    public synchronized boolean isDone(String path, File src) {
+        Progress p = mProgress.get(path);
+
+        return p != null && p.done && p.matches(src);
+    }
+
+    /**
+     * @param path	the path relative to the destination directory
+     * @param src	the file being copied to path
+     * @return	the number of bytes of the file known to be on disk, 0 if src
+     * 			changed since they were copied
+     */
+    public synchronized long getOffset(String path, File src) {
+        Progress p = mProgress.get(path);
+
+        return p == null || p.done || !p.matches(src) ? 0 : p.offset;
+    }
+
+    /**
+     * Records that the first offset bytes of path, copied from src, are on
+     * disk. The caller must have forced those bytes to the storage first.
+     * The journal is synced before this returns.
+     */
+    public synchronized void recordOffset(String path, File src, long offset) throws IOException {
+        Progress p = new Progress(src.length(), src.lastModified(), offset, false);
+
+        mProgress.put(path, p);
+        append(OFFSET + offset + " " + p.size + " " + p.modified + " " + path, true);
+    }
+
+    /**
+     * Records that path was copied completely from src. The journal is only
+     * synced every BATCH of these, and when it is closed.
+     */
+    public synchronized void recordDone(String path, File src) throws IOException {
+        Progress p = new Progress(src.length(), src.lastModified(), 0, true);
+
+        mProgress.put(path, p);
+        append(DONE + p.size + " " + p.modified + " " + path, ++mUnsynced >= BATCH);
+    }
+
+    /**
+     * Closes the journal and deletes it. Called once the whole copy succeeded.
+     */
+    public synchronized void finish() {
+        close();
+        if(!mFile.delete())
+            Log.e("CopyJournal", "could not delete " + mFile.getPath());
+    }
+
+    /**
+     * Closes the journal but leaves it on disk so the copy can be resumed.
+     */
+    public synchronized void close() {
+        if(mOut == null)
+            return;
+
+        try {
+            if(mUnsynced > 0)
+                mOut.getFD().sync();
+            mOut.close();
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+        }
+        mOut = null;
+    }
+
+    private void append(String line, boolean sync) throws IOException {
+        mOut.write((line + "\n").getBytes("UTF-8"));
+        if(sync) {
+            mOut.getFD().sync();
+            mUnsynced = 0;
+        }
+    }
+
+    /* (non-Javadoc)
+     * Reads an existing journal. Returns false if it belongs to a different
+     * source or can not be read, in which case it is started over.
+     */
+    private boolean load(String src) {
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new FileReader(mFile));
+            String line = reader.readLine();
+
+            if(line == null || !line.equals(SOURCE + src))
+                return false;
+
+            while((line = reader.readLine()) != null) {
+                boolean done = line.startsWith(DONE);
+
+                if(!done && !line.startsWith(OFFSET))
+                    continue;
+
+                /* a line cut short when the copy died is ignored */
+                String[] f = line.substring(2).split(" ", done ? 3 : 4);
+                if(f.length != (done ? 3 : 4))
+                    continue;
+
+                try {
+                    if(done)
+                        mProgress.put(f[2], new Progress(Long.parseLong(f[0]),
+                                Long.parseLong(f[1]), 0, true));
+                    else
+                        mProgress.put(f[3], new Progress(Long.parseLong(f[1]),
+                                Long.parseLong(f[2]), Long.parseLong(f[0]), false));
+
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+            }
+            return true;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            return false;
+
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.e("IOException", e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the listings of the directories visited most recently so going
+ * back into one does not list it again. Like FileManager this class has no
+ * reference to any GUI activity.
+ * <br>
+ * <br>
+ * Entries are keyed by canonical path and hold the modification time the
+ * directory had when it was listed. A lookup only answers if the directory
+ * still has that time, so files added or removed by other apps are noticed.
+ * Changes FileManager makes itself are dropped with invalidate(), which also
+ * covers changes made within the same second as the listing. Sizes of
+ * files changed in place and entry counts of subfolders are not covered by
+ * the directory's time, so those can show old values until the directory
+ * itself changes or FileManager invalidates it. The cache is
+ * bounded both in directories and in the total number of entries held, and
+ * the least recently used directory goes first.
+ */
+public class DirectoryCache {
+    private final int mMaxDirs;
+    private final int mMaxNames;
+    private int mNames = 0;
+    private final LinkedHashMap<String, Entry> mMap;
+
+    private static class Entry {
+        final long modified;
+        final ArrayList<FileEntry> list;
+        final boolean hidden;
+
+        Entry(long modified, ArrayList<FileEntry> list, boolean hidden) {
+            this.modified = modified;
+            this.list = list;
+            this.hidden = hidden;
+        }
+    }
+
+    /**
+     * @param maxDirs	the most directories kept
+     * @param maxNames	the most entries kept over all directories
+     */
+    public DirectoryCache(int maxDirs, int maxNames) {
+        mMaxDirs = maxDirs;
+        mMaxNames = maxNames;
+        mMap = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the listing kept for dir if the directory has not changed since
+     * and it was made with the same hidden file setting.
+     *
+     * @param dir			the directory
+     * @param showHidden	whether hidden files are being shown
+     * @return	the listing, which must not be modified, or null
+     */
+    public synchronized ArrayList<FileEntry> get(File dir, boolean showHidden) {
+        String key = keyOf(dir);
+        Entry entry = mMap.get(key);
+
+        if(entry == null)
+            return null;
+
+        if(entry.hidden != showHidden || entry.modified != dir.lastModified()) {
+            remove(key);
+            return null;
+        }
+
+        return entry.list;
+    }
+
+    /**
+     * Keeps the listing of dir. The caller must not modify list afterwards.
+     *
+     * @param dir			the directory
+     * @param modified		the directory's modification time read before listing it
+     * @param list			the entries in it
+     * @param showHidden	whether hidden files were included
+     */
+    public synchronized void put(File dir, long modified, ArrayList<FileEntry> list, boolean showHidden) {
+        if(list.size() > mMaxNames)
+            return;
+
+        String key = keyOf(dir);
+        remove(key);
+        mMap.put(key, new Entry(modified, list, showHidden));
+        mNames += list.size();
+
+        Iterator<Map.Entry<String, Entry>> it = mMap.entrySet().iterator();
+        while((mMap.size() > mMaxDirs || mNames > mMaxNames) && it.hasNext()) {
+            mNames -= it.next().getValue().list.size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops the listing of path.
+     *
+     * @param path	the directory that changed
+     */
+    public synchronized void invalidate(String path) {
+        remove(keyOf(new File(path)));
+    }
+
+    /**
+     * Drops the listing of path and of every directory below it.
+     *
+     * @param path	the root of the tree that changed
+     */
+    public synchronized void invalidateTree(String path) {
+        String key = keyOf(new File(path));
+        Iterator<Map.Entry<String, Entry>> it = mMap.entrySet().iterator();
+
+        while(it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+
+            if(e.getKey().equals(key) || e.getKey().startsWith(key + "/")) {
+                mNames -= e.getValue().list.size();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops everything.
+     */
+    public synchronized void clear() {
+        mMap.clear();
+        mNames = 0;
+    }
+
+    private void remove(String key) {
+        Entry old = mMap.remove(key);
+
+        if(old != null)
+            mNames -= old.list.size();
+    }
+
+    private static String keyOf(File dir) {
+        try {
+            return dir.getCanonicalPath();
+        } catch (IOException e) {
+            return dir.getAbsolutePath();
+        }
+    }
+}
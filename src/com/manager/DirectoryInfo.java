@@ -0,0 +1,126 @@
+package com.manager;
+
+import java.io.File;
+import java.util.Date;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.StatFs;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.TextView;
+
+/**
+ * Shows how many folders and files a directory holds and how much space
+ * they take. The totals are worked out by a DirectorySizer on a background
+ * thread and the labels count up while it runs.
+ * <br>
+ * <br>
+ * Started from the folder context menu of Main with the full path of the
+ * folder in the PATH_NAME extra. The zip button hands the folder back to
+ * Main in the ZIP_PATH extra of an ok result, so it is zipped through
+ * EventHandler like any other operation.
+ */
+public class DirectoryInfo extends Activity {
+    /** the extra holding the full path of the folder to show */
+    public static final String PATH_NAME = "PATH_NAME";
+    /** the extra of the result holding the full path of the folder to zip */
+    public static final String ZIP_PATH = "ZIP_PATH";
+
+    private DirectorySizer mSizer;
+    private TextView mDirsLabel, mFilesLabel, mSizeLabel;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.info_layout);
+
+        String path = getIntent().getStringExtra(PATH_NAME);
+        File dir = new File(path == null ? "/" : path);
+
+        mDirsLabel = (TextView)findViewById(R.id.dirs_label);
+        mFilesLabel = (TextView)findViewById(R.id.files_label);
+        mSizeLabel = (TextView)findViewById(R.id.total_size);
+
+        ((TextView)findViewById(R.id.name_label)).setText(dir.getName());
+        ((TextView)findViewById(R.id.path_label)).setText(dir.getPath());
+        ((TextView)findViewById(R.id.time_stamp)).setText(new Date(dir.lastModified()).toString());
+
+        StatFs fs = new StatFs(dir.getPath());
+        ((TextView)findViewById(R.id.fifth_title)).setText("Free space: ");
+        ((TextView)findViewById(R.id.free_space)).setText(EventHandler.formatSize(
+                (long)fs.getAvailableBlocks() * fs.getBlockSize()));
+
+        Button back = (Button)findViewById(R.id.back_button);
+        back.setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                finish();
+            }
+        });
+
+        final File target = dir;
+        Button zip = (Button)findViewById(R.id.zip_button);
+        zip.setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                Intent zip = new Intent();
+                zip.putExtra(ZIP_PATH, target.getPath());
+                setResult(RESULT_OK, zip);
+                finish();
+            }
+        });
+
+        mSizer = new DirectorySizer(Runtime.getRuntime().availableProcessors());
+        new SizeTask(dir).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mSizer.cancel();
+    }
+
+    private void showTotals(DirectorySizer.Totals totals) {
+        String more = totals.finished ? "" : "+";
+
+        mDirsLabel.setText(totals.dirs + more);
+        mFilesLabel.setText(totals.files + more);
+        mSizeLabel.setText(EventHandler.formatSize(totals.bytes) + more);
+    }
+
+    /*
+     * Measures the folder and shows the totals found so far as it goes.
+     */
+    private class SizeTask extends AsyncTask<Void, DirectorySizer.Totals, DirectorySizer.Totals>
+            implements DirectorySizer.Listener {
+        private final File dir;
+
+        private SizeTask(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public void onTotals(DirectorySizer.Totals totals) {
+            if(!totals.finished)
+                publishProgress(totals);
+        }
+
+        @Override
+        protected DirectorySizer.Totals doInBackground(Void... params) {
+            return mSizer.measure(dir, this);
+        }
+
+        @Override
+        protected void onProgressUpdate(DirectorySizer.Totals... values) {
+            showTotals(values[values.length - 1]);
+        }
+
+        @Override
+        protected void onPostExecute(DirectorySizer.Totals totals) {
+            showTotals(totals);
+        }
+    }
+}
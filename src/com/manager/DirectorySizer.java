@@ -0,0 +1,241 @@
+package com.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds up the folders, files and bytes under a directory, like du. Subtrees
+ * are measured in parallel by a TreeWalker.
+ * <br>
+ * <br>
+ * What each directory holds directly (its file count, their bytes and its
+ * subfolders) is remembered with the directory's modification time, for all
+ * Sizer objects alike, for up to MAX_LEVELS directories and MAX_NAMES
+ * subfolder names; the ones used longest ago are forgotten first.
+ * Measuring the same tree again only stats each directory, and lists again
+ * just the ones whose time moved, so after one folder changes the totals
+ * are not worked out from scratch. A file that changes size in place does
+ * not move its directory's time, so FileManager calls invalidate() for the
+ * changes it makes itself.
+ */
+public class DirectorySizer {
+    /* how often partial totals are handed out while measuring */
+    private static final long PUBLISH_INTERVAL = 200;
+
+    /* the most directories, and subfolder names over all of them, remembered */
+    private static final int MAX_LEVELS =		8192;
+    private static final int MAX_NAMES =		100000;
+
+    /* guarded by itself, in order of use */
+    private static final LinkedHashMap<String, Level> mLevels =
+            new LinkedHashMap<String, Level>(256, 0.75f, true);
+    private static int mNames = 0;
+
+    private final int mParallelism;
+    private volatile TreeWalker mWalker;
+    private volatile boolean mCancelled = false;
+
+    /*
+     * What one directory holds directly, as of its modification time.
+     */
+    private static final class Level {
+        final long modified;
+        final int files;
+        final long bytes;
+        final String[] subdirs;
+
+        Level(long modified, int files, long bytes, String[] subdirs) {
+            this.modified = modified;
+            this.files = files;
+            this.bytes = bytes;
+            this.subdirs = subdirs;
+        }
+    }
+
+    /**
+     * A count of what was found, while measuring or once done.
+     */
+    public static final class Totals {
+        /** the folders found below the directory, not counting itself */
+        public final int dirs;
+        /** the files found below the directory */
+        public final int files;
+        /** the bytes in those files */
+        public final long bytes;
+        /** true once the whole tree has been walked */
+        public final boolean finished;
+
+        Totals(int dirs, int files, long bytes, boolean finished) {
+            this.dirs = dirs;
+            this.files = files;
+            this.bytes = bytes;
+            this.finished = finished;
+        }
+    }
+
+    /**
+     * Handed the totals found so far, a few times a second, on the thread
+     * doing the work. The last call has finished set.
+     */
+    public interface Listener {
+        void onTotals(Totals totals);
+    }
+
+    /**
+     * @param parallelism	the number of folders measured at the same time
+     */
+    public DirectorySizer(int parallelism) {
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Forgets what is remembered about path and, if it is a folder, the
+     * folder holding it.
+     *
+     * @param path	a file or folder that changed
+     */
+    public static void invalidate(String path) {
+        File file = new File(path);
+
+        synchronized(mLevels) {
+            forget(file.getPath());
+            if(file.getParent() != null)
+                forget(file.getParent());
+        }
+    }
+
+    /**
+     * Stops measuring. measure() returns with what was found so far.
+     */
+    public void cancel() {
+        mCancelled = true;
+
+        TreeWalker walker = mWalker;
+        if(walker != null)
+            walker.cancel();
+    }
+
+    /**
+     * Measures everything under dir, blocking until done or cancelled.
+     *
+     * @param dir		the folder to measure
+     * @param listener	handed partial totals while measuring, may be null
+     * @return	the totals, with finished false if it was cancelled
+     */
+    public Totals measure(File dir, final Listener listener) {
+        final AtomicInteger dirs = new AtomicInteger();
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong published = new AtomicLong(System.currentTimeMillis());
+        final TreeWalker walker = new TreeWalker(mParallelism);
+
+        mWalker = walker;
+        if(mCancelled)
+            return new Totals(0, 0, 0, false);
+
+        boolean done = walker.walk(dir, new TreeWalker.Visitor() {
+            @Override
+            public File[] enterDirectory(File d) {
+                Level level = level(d);
+                File[] subs = new File[level.subdirs.length];
+
+                for(int i = 0; i < subs.length; i++)
+                    subs[i] = new File(d, level.subdirs[i]);
+
+                dirs.addAndGet(subs.length);
+                files.addAndGet(level.files);
+                bytes.addAndGet(level.bytes);
+
+                long now = System.currentTimeMillis();
+                long last = published.get();
+                if(listener != null && now - last >= PUBLISH_INTERVAL &&
+                        published.compareAndSet(last, now))
+                    listener.onTotals(new Totals(dirs.get(), files.get(), bytes.get(), false));
+
+                return subs;
+            }
+
+            @Override
+            public void exitDirectory(File d) {
+            }
+        });
+
+        Totals totals = new Totals(dirs.get(), files.get(), bytes.get(), done && !mCancelled);
+        if(listener != null)
+            listener.onTotals(totals);
+
+        return totals;
+    }
+
+    /* (non-Javadoc)
+     * Returns what d holds directly, listing it only if it changed since it
+     * was last listed.
+     */
+    private static Level level(File d) {
+        String path = d.getPath();
+        long modified = d.lastModified();
+        Level level;
+
+        synchronized(mLevels) {
+            level = mLevels.get(path);
+        }
+
+        if(level != null && level.modified == modified)
+            return level;
+
+        String[] list = d.list();
+        ArrayList<String> subdirs = new ArrayList<String>();
+        int count = 0;
+        long size = 0;
+
+        if(list != null) {
+            for(String name : list) {
+                File child = new File(d, name);
+
+                if(child.isDirectory()) {
+                    /* like du, links are not followed */
+                    if(!TreeWalker.isLink(child))
+                        subdirs.add(name);
+                } else {
+                    count++;
+                    size += child.length();
+                }
+            }
+        }
+
+        level = new Level(modified, count, size, subdirs.toArray(new String[subdirs.size()]));
+
+        /* a listing made within the directory's own second may miss changes */
+        if(list != null && System.currentTimeMillis() - modified > 2000)
+            remember(path, level);
+
+        return level;
+    }
+
+    private static void remember(String path, Level level) {
+        synchronized(mLevels) {
+            forget(path);
+            mLevels.put(path, level);
+            mNames += level.subdirs.length;
+
+            Iterator<Map.Entry<String, Level>> it = mLevels.entrySet().iterator();
+            while((mLevels.size() > MAX_LEVELS || mNames > MAX_NAMES) && it.hasNext()) {
+                mNames -= it.next().getValue().subdirs.length;
+                it.remove();
+            }
+        }
+    }
+
+    /* the caller holds the lock on mLevels */
+    private static void forget(String path) {
+        Level old = mLevels.remove(path);
+
+        if(old != null)
+            mNames -= old.subdirs.length;
+    }
+}
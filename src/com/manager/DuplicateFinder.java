@@ -0,0 +1,459 @@
+package com.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Finds files with the same contents under a directory. Like FileManager
+ * this class has no reference to any GUI activity.
+ * <br>
+ * <br>
+ * Most files are told apart without reading all of them. The tree is
+ * walked in parallel once, grouping files by their exact size; a file with
+ * a size nobody else has is never opened. Files that share a size are then
+ * told apart by a hash of their first and last EDGE bytes, and only the
+ * ones that still match are hashed in full, on a pool of threads.
+ */
+public class DuplicateFinder {
+    /* bytes hashed from each end of a file before hashing all of it */
+    private static final int EDGE = 			4 * 1024;
+    private static final int BUFFER_SIZE = 		64 * 1024;
+
+    private final int mParallelism;
+    private ProgressTracker mTracker = new ProgressTracker(null);
+    private volatile TreeWalker mWalker;
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Files found to have the same contents.
+     */
+    public static class Group {
+        private final long mSize;
+        private final ArrayList<String> mPaths;
+
+        Group(long size, ArrayList<String> paths) {
+            mSize = size;
+            mPaths = paths;
+            Collections.sort(mPaths);
+        }
+
+        /** @return	the size of each file */
+        public long getSize() { return mSize; }
+
+        /** @return	the full paths of the files, sorted */
+        public ArrayList<String> getPaths() { return mPaths; }
+
+        /** @return	the first path, the copy that is kept */
+        public String getOriginal() { return mPaths.get(0); }
+
+        /** @return	every path but the first, the copies that could go */
+        public ArrayList<String> getExtras() {
+            return new ArrayList<String>(mPaths.subList(1, mPaths.size()));
+        }
+
+        /** @return	the bytes freed by keeping only one of the files */
+        public long getReclaimable() { return mSize * (mPaths.size() - 1); }
+    }
+
+    /**
+     * What a search found.
+     */
+    public static class Result {
+        private final ArrayList<Group> mGroups;
+        private final long mBytesRead;
+        private final boolean mComplete;
+
+        Result(ArrayList<Group> groups, long bytesRead, boolean complete) {
+            mGroups = groups;
+            mBytesRead = bytesRead;
+            mComplete = complete;
+        }
+
+        /** @return	the sets of duplicates, most space to gain first */
+        public ArrayList<Group> getGroups() { return mGroups; }
+
+        /** @return	the bytes freed by keeping one file of every group */
+        public long getReclaimable() {
+            long total = 0;
+
+            for(Group g : mGroups)
+                total += g.getReclaimable();
+            return total;
+        }
+
+        /** @return	how many bytes had to be read to find them */
+        public long getBytesRead() { return mBytesRead; }
+
+        /** @return	false if the search was cancelled */
+        public boolean isComplete() { return mComplete; }
+    }
+
+    /**
+     * @param parallelism	the number of folders listed, and files hashed,
+     * 						at the same time
+     */
+    public DuplicateFinder(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets the tracker told about the files hashed in full.
+     */
+    public void setProgressTracker(ProgressTracker tracker) {
+        mTracker = tracker;
+    }
+
+    /**
+     * Stops the search, find() returns what was confirmed so far.
+     */
+    public void cancel() {
+        mCancelled = true;
+
+        TreeWalker walker = mWalker;
+        if(walker != null)
+            walker.cancel();
+    }
+
+    /**
+     * Looks for duplicates among the files under root, blocking until done
+     * or cancelled.
+     *
+     * @param root		the folder to search
+     * @param minSize	files smaller than this are left out, at least 1
+     * @return	the groups of duplicates found
+     */
+    public Result find(File root, long minSize) {
+        AtomicLong read = new AtomicLong();
+        ArrayList<ArrayList<String>> sameSize = bySize(root, Math.max(1, minSize));
+        ArrayList<Group> groups = new ArrayList<Group>();
+        ArrayList<ArrayList<String>> candidates = new ArrayList<ArrayList<String>>();
+        long total = 0;
+        int files = 0;
+
+        for(ArrayList<String> paths : sameSize) {
+            if(mCancelled)
+                break;
+
+            long size = new File(paths.get(0)).length();
+
+            for(ArrayList<String> same : split(paths, read)) {
+                /* both ends cover the whole file, nothing more to read */
+                if(size <= 2 * EDGE) {
+                    groups.add(new Group(size, same));
+                } else {
+                    candidates.add(same);
+                    total += size * same.size();
+                    files += same.size();
+                }
+            }
+        }
+
+        mTracker.setTotals(files, total);
+        groups.addAll(hashFully(candidates, read));
+        mTracker.finish();
+
+        Collections.sort(groups, new Comparator<Group>() {
+            @Override
+            public int compare(Group a, Group b) {
+                long d = b.getReclaimable() - a.getReclaimable();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+
+        return new Result(groups, read.get(), !mCancelled);
+    }
+
+    /**
+     * Tells if two files have the same contents right now, comparing them
+     * byte for byte. A Result may be minutes old by the time the user acts
+     * on it, so this is asked again before a copy is deleted.
+     *
+     * @param a	a file
+     * @param b	another file
+     * @return	true if both are readable, are not the same file and hold the
+     * 			same bytes
+     */
+    public static boolean sameContents(File a, File b) {
+        FileInputStream in_a = null;
+        FileInputStream in_b = null;
+        byte[] buf_a = new byte[BUFFER_SIZE];
+        byte[] buf_b = new byte[BUFFER_SIZE];
+
+        if(!a.isFile() || !b.isFile() || a.length() != b.length())
+            return false;
+
+        try {
+            /* one is a link to the other, deleting the wrong one loses the contents */
+            if(a.getCanonicalPath().equals(b.getCanonicalPath()))
+                return false;
+
+            in_a = new FileInputStream(a);
+            in_b = new FileInputStream(b);
+            int n;
+
+            while((n = in_a.read(buf_a)) > 0) {
+                int got = 0, m;
+
+                while(got < n && (m = in_b.read(buf_b, got, n - got)) > 0)
+                    got += m;
+                if(got < n)
+                    return false;
+
+                for(int i = 0; i < n; i++)
+                    if(buf_a[i] != buf_b[i])
+                        return false;
+            }
+
+            return in_b.read() < 0;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            return false;
+
+        } finally {
+            try {
+                if(in_a != null)
+                    in_a.close();
+                if(in_b != null)
+                    in_b.close();
+            } catch (IOException e) {
+                Log.e("IOException", e.getMessage());
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * Walks root and returns the paths of files that share their size with
+     * at least one other file.
+     */
+    private ArrayList<ArrayList<String>> bySize(File root, final long minSize) {
+        final HashMap<Long, ArrayList<String>> sizes = new HashMap<Long, ArrayList<String>>();
+        final TreeWalker walker = new TreeWalker(mParallelism);
+
+        mWalker = walker;
+        if(!mCancelled) {
+            walker.walk(root, new TreeWalker.Visitor() {
+                @Override
+                public File[] enterDirectory(File dir) {
+                    String[] list = dir.list();
+                    ArrayList<File> subs = new ArrayList<File>();
+                    HashMap<Long, ArrayList<String>> found = new HashMap<Long, ArrayList<String>>();
+
+                    if(list == null)
+                        return null;
+
+                    for(String name : list) {
+                        File child = new File(dir, name);
+
+                        if(child.isDirectory()) {
+                            if(!TreeWalker.isLink(child))
+                                subs.add(child);
+                            continue;
+                        }
+
+                        long size = child.length();
+                        if(size >= minSize)
+                            add(found, size, child.getPath());
+                    }
+
+                    synchronized(sizes) {
+                        for(Map.Entry<Long, ArrayList<String>> e : found.entrySet())
+                            for(String path : e.getValue())
+                                add(sizes, e.getKey(), path);
+                    }
+
+                    return subs.toArray(new File[subs.size()]);
+                }
+
+                @Override
+                public void exitDirectory(File dir) {
+                }
+            });
+        }
+
+        ArrayList<ArrayList<String>> same = new ArrayList<ArrayList<String>>();
+        for(ArrayList<String> paths : sizes.values())
+            if(paths.size() > 1)
+                same.add(paths);
+
+        return same;
+    }
+
+    /* (non-Javadoc)
+     * Hashes each group of same sized files in full on a pool of threads
+     * and returns the files that still match.
+     */
+    private ArrayList<Group> hashFully(ArrayList<ArrayList<String>> candidates, final AtomicLong read) {
+        final ArrayList<Group> groups = new ArrayList<Group>();
+        ExecutorService pool = Executors.newFixedThreadPool(mParallelism);
+
+        /* one task per file, so a group of large files is spread out too */
+        final HashMap<String, String> digests = new HashMap<String, String>();
+        for(ArrayList<String> paths : candidates) {
+            for(final String path : paths) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        String digest = mCancelled ? null : digest(path, true, read);
+
+                        synchronized(digests) {
+                            digests.put(path, digest);
+                        }
+                    }
+                });
+            }
+        }
+
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            mCancelled = true;
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        for(ArrayList<String> paths : candidates) {
+            HashMap<String, ArrayList<String>> byDigest = new HashMap<String, ArrayList<String>>();
+            long size = new File(paths.get(0)).length();
+
+            synchronized(digests) {
+                for(String path : paths) {
+                    String d = digests.get(path);
+
+                    if(d == null)
+                        continue;
+
+                    ArrayList<String> list = byDigest.get(d);
+                    if(list == null)
+                        byDigest.put(d, list = new ArrayList<String>());
+                    list.add(path);
+                }
+            }
+
+            for(ArrayList<String> same : byDigest.values())
+                if(same.size() > 1)
+                    groups.add(new Group(size, same));
+        }
+
+        return groups;
+    }
+
+    /* (non-Javadoc)
+     * Splits paths into the groups whose edge hashes match, leaving out
+     * files that match nothing or cannot be read.
+     */
+    private ArrayList<ArrayList<String>> split(ArrayList<String> paths, AtomicLong read) {
+        HashMap<String, ArrayList<String>> byDigest = new HashMap<String, ArrayList<String>>();
+        ArrayList<ArrayList<String>> same = new ArrayList<ArrayList<String>>();
+
+        for(String path : paths) {
+            String d = digest(path, false, read);
+
+            if(d != null)
+                add(byDigest, d, path);
+        }
+
+        for(ArrayList<String> list : byDigest.values())
+            if(list.size() > 1)
+                same.add(list);
+
+        return same;
+    }
+
+    /* (non-Javadoc)
+     * Returns the hex SHA-1 of the whole file, or of its first and last EDGE
+     * bytes, or null if it could not be read.
+     */
+    private String digest(String path, boolean full, AtomicLong read) {
+        MessageDigest md;
+        byte[] buffer = new byte[full ? BUFFER_SIZE : EDGE];
+
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            Log.e("DuplicateFinder", "no SHA-1", e);
+            return null;
+        }
+
+        try {
+            if(full) {
+                FileInputStream in = new FileInputStream(path);
+                int n;
+
+                mTracker.setCurrentFile(path);
+                try {
+                    while((n = in.read(buffer)) > 0) {
+                        if(mCancelled)
+                            return null;
+
+                        md.update(buffer, 0, n);
+                        read.addAndGet(n);
+                        mTracker.addBytes(n);
+                    }
+                } finally {
+                    in.close();
+                }
+                mTracker.fileDone();
+
+            } else {
+                RandomAccessFile in = new RandomAccessFile(path, "r");
+
+                try {
+                    long length = in.length();
+                    int n = (int)Math.min(EDGE, length);
+
+                    in.readFully(buffer, 0, n);
+                    md.update(buffer, 0, n);
+
+                    if(length > EDGE) {
+                        long tail = Math.max(EDGE, length - EDGE);
+                        int m = (int)(length - tail);
+
+                        in.seek(tail);
+                        in.readFully(buffer, 0, m);
+                        md.update(buffer, 0, m);
+                        n += m;
+                    }
+                    read.addAndGet(n);
+
+                } finally {
+                    in.close();
+                }
+            }
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            return null;
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for(byte b : md.digest())
+            hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+
+        return hex.toString();
+    }
+
+    private static <K> void add(HashMap<K, ArrayList<String>> map, K key, String path) {
+        ArrayList<String> list = map.get(key);
+
+        if(list == null)
+            map.put(key, list = new ArrayList<String>());
+        list.add(path);
+    }
+}
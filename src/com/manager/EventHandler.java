@@ -2,18 +2,30 @@ package com.manager;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
+import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.ActivityNotFoundException;
 import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
 import android.graphics.Color;
 import android.graphics.Bitmap;
+import android.net.Uri;
 import android.view.View.OnClickListener;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
@@ -44,20 +56,79 @@ public class EventHandler implements OnClickListener {
      */
     private static final int COPY_TYPE =		0x01;
     private static final int DELETE_TYPE = 		0x05;
+    private static final int DUPLICATE_TYPE =	0x06;
+    private static final int ZIP_TYPE =			0x07;
+    private static final int UNZIP_TYPE =		0x08;
+
+    /*
+     * Which way ListingTask moves before listing
+     */
+    private static final int LIST_HOME =		0x01;
+    private static final int LIST_NEXT =		0x02;
+    private static final int LIST_PREVIOUS =	0x03;
+    private static final int LIST_REFRESH =		0x04;
+
+    /*
+     * How long a frame is waited for where Choreographer is missing
+     */
+    private static final long FRAME_MS =		16;
+
+    /*
+     * Directories are listed one at a time on their own thread so a slow
+     * folder never waits behind a copy, and a copy never waits behind it.
+     */
+    private static final Executor LISTING_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /*
+     * Building and checking the search index takes a while, it gets a
+     * thread of its own too, as do the updates FileManager sends it after
+     * every change. The index outlives the activity so turning the
+     * screen does not load it again.
+     */
+    private static final Executor INDEX_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String INDEX_FILE = "filenames.idx";
+    private static FileIndex mIndex = null;
 
     private final Context mContext;
     private final FileManager mFileMang;
     private ThumbnailCreator mThumbnail;
     private TableRow mDelegate;
+    private AbsListView mList;
+
+    /*
+     * Thumbnails made since the rows were last updated. They are put into
+     * the rows at most once a frame, however fast they arrive.
+     */
+    private final HashSet<String> mArrived = new HashSet<String>();
+    private Handler mArrivals;
+    private boolean mFramePending = false;
 
     private boolean delete_after_copy = false;
     private boolean thumbnail_flag = true;
+    private boolean multi_select_flag = false;
     private int mColor = Color.WHITE;
 
     //the list used to feed info into the array adapter and when multi-select is on
-    private ArrayList<String> mDataSource;
+    private ArrayList<FileEntry> mDataSource;
+    private ArrayList<String> mMultiSelectData;
     private TextView mPathLabel;
     private TextView mInfoLabel;
+    private View mMultiSelectBar;
+
+    //files held from the multi-select copy/move buttons, waiting to be pasted
+    private ArrayList<String> mHeldFiles;
+    private boolean mHeldMove = false;
+
+    //file operations waiting for the one that is running to finish
+    private final LinkedList<Operation> mQueue = new LinkedList<Operation>();
+    private boolean mWorking = false;
+
+    /*
+     * Counts the times the user moved to another directory. A listing
+     * remembers the count it was started at and anything it finds once the
+     * count moved on is thrown away, as the user is not looking at it.
+     */
+    private volatile int mGeneration = 0;
 
 
     /**
@@ -70,9 +141,12 @@ public class EventHandler implements OnClickListener {
     public EventHandler(Context context, final FileManager manager) {
         mContext = context;
         mFileMang = manager;
+        mFileMang.setTempDir(context.getCacheDir());
+        mMultiSelectData = new ArrayList<String>();
+        mDataSource = new ArrayList<FileEntry>();
 
-        mDataSource = new ArrayList<String>(mFileMang.setHomeDir
-                (Environment.getExternalStorageDirectory().getPath()));
+        openIndex();
+        openHomeDirectory(Environment.getExternalStorageDirectory().getPath());
     }
 
     /**
@@ -86,8 +160,12 @@ public class EventHandler implements OnClickListener {
     public EventHandler(Context context, final FileManager manager, String location) {
         mContext = context;
         mFileMang = manager;
+        mFileMang.setTempDir(context.getCacheDir());
+        mMultiSelectData = new ArrayList<String>();
+        mDataSource = new ArrayList<FileEntry>();
 
-        mDataSource = new ArrayList<String>(mFileMang.getNextDir(location, true));
+        openIndex();
+        openDirectory(location, true);
     }
 
     /**
@@ -101,6 +179,17 @@ public class EventHandler implements OnClickListener {
         mDelegate = adapter;
     }
 
+    /**
+     * This method is called from the Main activity and is passed the list
+     * the TableRow adapter fills, so thumbnails can be put straight into
+     * the rows on screen as they arrive.
+     *
+     * @param list	the ListView of the Main activity
+     */
+    public void setListView(AbsListView list) {
+        mList = list;
+    }
+
     /**
      * This method is called from the Main activity and is passed
      * the TextView that should be updated as the directory changes
@@ -151,7 +240,38 @@ public class EventHandler implements OnClickListener {
      * @param name
      */
     public void deleteFile(String name) {
-        new BackgroundWork(DELETE_TYPE).execute(name);
+        enqueue(new Operation(DELETE_TYPE, new String[] {name}, null, false));
+    }
+
+    /**
+     * Will delete all the files and folders passed as a single job on a
+     * background thread, with one progress dialog and one refresh of the
+     * directory at the end.
+     *
+     * @param names	the full paths to delete
+     */
+    public void deleteFiles(ArrayList<String> names) {
+        enqueue(new Operation(DELETE_TYPE, names.toArray(new String[names.size()]), null, false));
+    }
+
+    /**
+     * Will zip a file or folder into a zip next to it on a background
+     * thread.
+     *
+     * @param path	the full path of the file or folder to zip
+     */
+    public void zipFile(String path) {
+        enqueue(new Operation(ZIP_TYPE, new String[] {path}, null, false));
+    }
+
+    /**
+     * Will extract a zip into a folder on a background thread.
+     *
+     * @param zipFile	the full path of the zip
+     * @param directory	the full path of the folder to extract into
+     */
+    public void unzipFile(String zipFile, String directory) {
+        enqueue(new Operation(UNZIP_TYPE, new String[] {zipFile}, directory, false));
     }
 
     /**
@@ -161,21 +281,293 @@ public class EventHandler implements OnClickListener {
      * @param newLocation	to location
      */
     public void copyFile(String oldLocation, String newLocation) {
-        String[] data = {oldLocation, newLocation};
+        if(mFileMang.hasUnfinishedCopy(oldLocation, newLocation))
+            Toast.makeText(mContext, "Resuming unfinished copy of " +
+                            new File(oldLocation).getName(), Toast.LENGTH_SHORT).show();
+
+        enqueue(new Operation(COPY_TYPE, new String[] {oldLocation}, newLocation, delete_after_copy));
+        delete_after_copy = false;
+    }
+
+    /**
+     * Will copy, or move, all the files and folders passed into newLocation
+     * as a single job.
+     *
+     * @param oldLocations	the full paths to copy
+     * @param newLocation	the directory to copy them into
+     * @param move			true to move the files instead of copying them
+     */
+    public void copyFiles(ArrayList<String> oldLocations, String newLocation, boolean move) {
+        enqueue(new Operation(COPY_TYPE, oldLocations.toArray(new String[oldLocations.size()]),
+                newLocation, move));
+    }
+
+    /**
+     * Tells if files picked with multi-select copy or move are waiting
+     * to be pasted.
+     */
+    public boolean isHoldingFiles() {
+        return mHeldFiles != null && !mHeldFiles.isEmpty();
+    }
+
+    /**
+     * Pastes the files held from multi-select into newLocation.
+     *
+     * @param newLocation	the directory to paste into
+     */
+    public void pasteHeldFiles(String newLocation) {
+        if(!isHoldingFiles())
+            return;
+
+        copyFiles(mHeldFiles, newLocation, mHeldMove);
+        mHeldFiles = null;
+        mHeldMove = false;
+        mInfoLabel.setText("");
+    }
+
+    /**
+     * Gives the handler the footer holding the multi-select buttons so it
+     * can be shown while multi-select is on.
+     *
+     * @param bar	the hidden_buttons layout from Main
+     */
+    public void setMultiSelectBar(View bar) {
+        mMultiSelectBar = bar;
+    }
+
+    /**
+     * @return	true if the user is picking several items
+     */
+    public boolean isMultiSelected() {
+        return multi_select_flag;
+    }
+
+    /**
+     * Adds the item at position to the multi-select list, or takes it off
+     * if it was already there.
+     *
+     * @param position	the position in the list view
+     */
+    public void addMultiPosition(int position) {
+        String path = mDataSource.get(position).getPath();
+
+        if(!mMultiSelectData.remove(path))
+            mMultiSelectData.add(path);
+
+        mInfoLabel.setText(mMultiSelectData.size() + " selected");
+        mDelegate.notifyDataSetChanged();
+    }
+
+    private void setMultiSelect(boolean on) {
+        multi_select_flag = on;
+        mMultiSelectData.clear();
+
+        if(mMultiSelectBar != null)
+            mMultiSelectBar.setVisibility(on ? View.VISIBLE : View.GONE);
+        mInfoLabel.setText(on ? "0 selected" : "");
+        mDelegate.notifyDataSetChanged();
+    }
+
+    /*
+     * Adds an operation to the queue and starts it if nothing else is running.
+     */
+    private void enqueue(Operation op) {
+        mQueue.add(op);
+
+        if(!mWorking)
+            runNextOperation();
+    }
+
+    /*
+     * Starts the next queued operation. Once the queue is empty the
+     * directory is refreshed, once for the whole run of operations.
+     */
+    private void runNextOperation() {
+        Operation op = mQueue.poll();
+
+        if(op == null) {
+            mWorking = false;
+            refreshDirectory();
+            updateIndex(false);
+            return;
+        }
+
+        mWorking = true;
+        new BackgroundWork(op).execute();
+    }
+
+
+
+    /**
+     * Moves into path and lists it on a background thread. The list and
+     * the path label are updated once the listing is ready.
+     *
+     * @param path		the folder to open
+     * @param isFullPath	true if path is a full path, false if it is a name
+     * 					in the current directory
+     */
+    public void openDirectory(String path, boolean isFullPath) {
+        startListing(new ListingTask(LIST_NEXT, path, isFullPath));
+    }
+
+    /**
+     * Moves up to the previous directory and lists it on a background thread.
+     */
+    public void openPreviousDirectory() {
+        startListing(new ListingTask(LIST_PREVIOUS, null, true));
+    }
+
+    /**
+     * Makes path the home directory and lists it on a background thread.
+     *
+     * @param path	the new home directory
+     */
+    public void openHomeDirectory(String path) {
+        startListing(new ListingTask(LIST_HOME, path, true));
+    }
 
-        new BackgroundWork(COPY_TYPE).execute(data);
+    /**
+     * Lists the current directory again, e.g. after files in it changed.
+     * Which directory that is, is only looked up once the listings queued
+     * before have moved FileManager.
+     */
+    public void refreshDirectory() {
+        startListing(new ListingTask(LIST_REFRESH, null, true));
     }
 
+    /*
+     * Starts a new generation, so the listing still being read stops and the
+     * thumbnails of its folder are dropped, and queues the next one behind
+     * it. Listings left behind still move FileManager, so going back several
+     * times in a row ends up where it should, but they skip reading their
+     * directories.
+     */
+    private void startListing(ListingTask task) {
+        task.generation = ++mGeneration;
+        stopThumbnailThread();
 
+        task.executeOnExecutor(LISTING_EXECUTOR);
+    }
 
     /**
-     * this will stop our background thread that creates thumbnail icons
-     * if the thread is running. this should be stopped when ever
-     * we leave the folder the image files are in.
+     * Looks for files and folders under the sdcard whose name contains
+     * query and shows them in a list to pick from. The search index is used
+     * if it is ready. Without it, or when query holds a * or ? wildcard, the
+     * current directory is searched instead and matches show up as they are
+     * found.
+     *
+     * @param query	the text to look for
+     */
+    public void searchFiles(String query) {
+        boolean glob = query.indexOf('*') >= 0 || query.indexOf('?') >= 0;
+
+        if(mIndex == null || !mIndex.isReady() || glob) {
+            FileSearcher.Query q = new FileSearcher.Query();
+
+            q.setName(query);
+            searchDirectory(q, query);
+            return;
+        }
+
+        new SearchTask(query).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Extracts one file out of the zip being browsed into the cache and
+     * opens it with whatever app handles its type.
+     *
+     * @param path	the full path of the entry, through the zip
+     */
+    public void openArchiveEntry(String path) {
+        new EntryTask(path).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Looks for files with the same contents under the current directory
+     * and lists the sets found. The user can then have every copy but one
+     * of each set deleted.
+     */
+    public void findDuplicates() {
+        new DuplicateTask(new File(mFileMang.getCurrentDir()))
+                .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Searches the current directory and everything under it, showing
+     * matches as they are found. The user can stop it at any time.
+     *
+     * @param query	what to look for
+     * @param title	how to name the search to the user
+     */
+    public void searchDirectory(FileSearcher.Query query, String title) {
+        new LiveSearchTask(query, title).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /*
+     * Gives FileManager the search index, loading the file written last
+     * time when there is one.
+     */
+    private void openIndex() {
+        if(mIndex == null) {
+            mIndex = new FileIndex(new File(mContext.getFilesDir(), INDEX_FILE),
+                    Environment.getExternalStorageDirectory());
+            mFileMang.setFileIndex(mIndex, INDEX_EXECUTOR);
+            updateIndex(true);
+
+        } else {
+            mFileMang.setFileIndex(mIndex, INDEX_EXECUTOR);
+        }
+    }
+
+    /*
+     * Loads, checks or rebuilds the index on its own thread. Changes made by
+     * other apps are found by refresh(); a new index is only written when
+     * there is none or too many changes have piled up.
+     */
+    private void updateIndex(final boolean load) {
+        final FileIndex index = mIndex;
+
+        INDEX_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(load && index.load())
+                    index.refresh();
+
+                if(index.needsRebuild())
+                    index.build(Runtime.getRuntime().availableProcessors());
+            }
+        });
+    }
+
+    /**
+     * this will drop the thumbnails still waiting to be made. this should
+     * be called when ever we leave the folder the image files are in.
+     * thumbnails being made when it is called still finish.
      */
     public void stopThumbnailThread() {
+        if (mThumbnail != null)
+            mThumbnail.cancelAll();
+    }
+
+    /**
+     * Tells the thumbnail threads which rows are on screen, so the images
+     * the user sees are made first. Main calls this as the list scrolls.
+     *
+     * @param first	the first row shown
+     * @param count	the number of rows shown
+     */
+    public void setVisibleRange(int first, int count) {
+        if (mThumbnail != null)
+            mThumbnail.setVisibleRange(first, first + Math.max(count, 1) - 1);
+    }
+
+    /**
+     * Stops the thumbnail threads for good. Main calls this when it is
+     * destroyed.
+     */
+    public void shutdownThumbnails() {
         if (mThumbnail != null) {
-            mThumbnail.setCancelThumbnails(true);
+            mThumbnail.shutdown();
             mThumbnail = null;
         }
     }
@@ -193,21 +585,38 @@ public class EventHandler implements OnClickListener {
                 if (mFileMang.getCurrentDir() != "/") {
 
                     stopThumbnailThread();
-                    updateDirectory(mFileMang.getPreviousDir());
-                    if (mPathLabel != null)
-                        mPathLabel.setText(mFileMang.getCurrentDir());
+                    openPreviousDirectory();
                 }
                 break;
 
             case R.id.home_button:
 
                 stopThumbnailThread();
-                updateDirectory(mFileMang.setHomeDir("/sdcard"));
-                if (mPathLabel != null)
-                    mPathLabel.setText(mFileMang.getCurrentDir());
+                openHomeDirectory("/sdcard");
+                break;
+
+            case R.id.multiselect_button:
+                setMultiSelect(!multi_select_flag);
+                break;
+
+            case R.id.hidden_delete:
+                if(mMultiSelectData.isEmpty())
+                    break;
+
+                deleteFiles(mMultiSelectData);
+                setMultiSelect(false);
                 break;
 
+            case R.id.hidden_copy:
+            case R.id.hidden_move:
+                if(mMultiSelectData.isEmpty())
+                    break;
 
+                mHeldFiles = new ArrayList<String>(mMultiSelectData);
+                mHeldMove = v.getId() == R.id.hidden_move;
+                setMultiSelect(false);
+                mInfoLabel.setText("Holding " + mHeldFiles.size() + " item(s)");
+                break;
 
         }
     }
@@ -219,6 +628,21 @@ public class EventHandler implements OnClickListener {
      */
     public String getData(int position) {
 
+        if(position > mDataSource.size() - 1 || position < 0)
+            return null;
+
+        return mDataSource.get(position).getName();
+    }
+
+    /**
+     * will return everything known about the file or folder at position
+     * without touching the file system.
+     *
+     * @param position	the index in the list view
+     * @return the entry, or null if position is out of range
+     */
+    public FileEntry getEntry(int position) {
+
         if(position > mDataSource.size() - 1 || position < 0)
             return null;
 
@@ -231,14 +655,14 @@ public class EventHandler implements OnClickListener {
      *
      * @param content	an ArrayList of the file/folders in the current directory.
      */
-    public void updateDirectory(ArrayList<String> content) {
+    public void updateDirectory(ArrayList<FileEntry> content) {
         if(!mDataSource.isEmpty())
             mDataSource.clear();
 
-        for(String data : content)
-            mDataSource.add(data);
+        mDataSource.addAll(content);
 
-        mDelegate.notifyDataSetChanged();
+        if(mDelegate != null)
+            mDelegate.notifyDataSetChanged();
     }
 
     /**
@@ -249,10 +673,108 @@ public class EventHandler implements OnClickListener {
      */
 
 
+    /**
+     * Formats a number of bytes the way the list rows do.
+     *
+     * @param size	the number of bytes
+     * @return	the size in bytes, Kb, Mb or Gb
+     */
+    public static String formatSize(long size) {
+        final int KB = 1024;
+        final int MG = KB * KB;
+        final int GB = MG * KB;
+
+        if (size > GB)
+            return String.format("%.2f Gb", (double)size / GB);
+        else if (size > MG)
+            return String.format("%.2f Mb", (double)size / MG);
+        else if (size > KB)
+            return String.format("%.2f Kb", (double)size / KB);
+
+        return size + " bytes";
+    }
+
+    private static String formatTime(long millis) {
+        long secs = (millis + 999) / 1000;
+
+        if(secs >= 3600)
+            return String.format("%d:%02d:%02d", secs / 3600, (secs / 60) % 60, secs % 60);
+
+        return String.format("%d:%02d", secs / 60, secs % 60);
+    }
+
     private static class ViewHolder {
         TextView topView;
         TextView bottomView;
         ImageView icon;
+        ImageView mark;
+        String path;	//the file the row shows
+    }
+
+    /*
+     * Called on the UI thread for each thumbnail made. The first one after
+     * a frame asks for the next frame, where all that arrived meanwhile are
+     * shown together by showArrivedThumbnails(). Choreographer is only
+     * there from Jelly Bean on, before that a frame is waited for with a
+     * delay.
+     */
+    private void thumbnailArrived(String path) {
+        mArrived.add(path);
+
+        if(mFramePending)
+            return;
+
+        mFramePending = true;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                public void doFrame(long frameTimeNanos) {
+                    showArrivedThumbnails();
+                }
+            });
+
+        } else {
+            mArrivals.postDelayed(new Runnable() {
+                public void run() {
+                    showArrivedThumbnails();
+                }
+            }, FRAME_MS);
+        }
+    }
+
+    /*
+     * Sets the new thumbnails on the rows on screen that show them. Nothing
+     * else is bound again, rows scrolled in later find theirs in the cache.
+     */
+    private void showArrivedThumbnails() {
+        mFramePending = false;
+
+        if(mList == null) {
+            if(mDelegate != null)
+                mDelegate.notifyDataSetChanged();
+            mArrived.clear();
+            return;
+        }
+
+        ThumbnailCache cache = ThumbnailCache.getInstance();
+        int count = mList.getChildCount();
+
+        for(int i = 0; i < count && !mArrived.isEmpty(); i++) {
+            Object tag = mList.getChildAt(i).getTag();
+
+            if(!(tag instanceof ViewHolder))
+                continue;
+
+            ViewHolder holder = (ViewHolder)tag;
+
+            if(holder.path != null && mArrived.remove(holder.path)) {
+                Bitmap thumb = cache.get(holder.path);
+
+                if(thumb != null)
+                    holder.icon.setImageBitmap(thumb);
+            }
+        }
+
+        mArrived.clear();
     }
 
 
@@ -264,45 +786,21 @@ public class EventHandler implements OnClickListener {
      *
      *
      */
-    public class TableRow extends ArrayAdapter<String> {
+    public class TableRow extends ArrayAdapter<FileEntry> {
         private final int KB = 1024;
         private final int MG = KB * KB;
         private final int GB = MG * KB;
         private String display_size;
-        private ArrayList<Integer> positions;
 
         public TableRow() {
             super(mContext, R.layout.tablerow, mDataSource);
         }
 
-
-
-
-
-
-        public String getFilePermissions(File file) {
-            String per = "-";
-
-            if(file.isDirectory())
-                per += "d";
-            if(file.canRead())
-                per += "r";
-            if(file.canWrite())
-                per += "w";
-
-            return per;
-        }
-
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
             final ViewHolder mViewHolder;
-            int num_items = 0;
-            String temp = mFileMang.getCurrentDir();
-            File file = new File(temp + "/" + mDataSource.get(position));
-            String[] list = file.list();
-
-            if(list != null)
-                num_items = list.length;
+            final FileEntry file = mDataSource.get(position);
+            int num_items = Math.max(file.getChildCount(), 0);
 
             if(convertView == null) {
                 LayoutInflater inflater = (LayoutInflater) mContext.
@@ -313,6 +811,7 @@ public class EventHandler implements OnClickListener {
                 mViewHolder.topView = (TextView)convertView.findViewById(R.id.top_view);
                 mViewHolder.bottomView = (TextView)convertView.findViewById(R.id.bottom_view);
                 mViewHolder.icon = (ImageView)convertView.findViewById(R.id.row_image);
+                mViewHolder.mark = (ImageView)convertView.findViewById(R.id.multiselect_icon);
 
                 convertView.setTag(mViewHolder);
 
@@ -325,115 +824,58 @@ public class EventHandler implements OnClickListener {
             mViewHolder.topView.setTextColor(mColor);
             mViewHolder.bottomView.setTextColor(mColor);
 
-            if(mThumbnail == null)
-                mThumbnail = new ThumbnailCreator(52, 52);
-
-            if(file != null && file.isFile()) {
-                String ext = file.toString();
-                String sub_ext = ext.substring(ext.lastIndexOf(".") + 1);
-    			
-    			/* This series of else if statements will determine which 
-    			 * icon is displayed 
-    			 */
-                if (sub_ext.equalsIgnoreCase("pdf")) {
-                    mViewHolder.icon.setImageResource(R.drawable.pdf);
+            if(multi_select_flag && mMultiSelectData.contains(file.getPath()))
+                mViewHolder.mark.setVisibility(View.VISIBLE);
+            else
+                mViewHolder.mark.setVisibility(View.GONE);
 
-                } else if (sub_ext.equalsIgnoreCase("mp3") ||
-                        sub_ext.equalsIgnoreCase("wma") ||
-                        sub_ext.equalsIgnoreCase("m4a") ||
-                        sub_ext.equalsIgnoreCase("m4p")) {
+            if(mThumbnail == null) {
+                mArrivals = new Handler(new Handler.Callback() {
+                    public boolean handleMessage(Message msg) {
+                        /* sent before the user left the folder */
+                        if(mThumbnail != null && msg.arg1 == mThumbnail.getGeneration())
+                            thumbnailArrived((String)msg.obj);
 
-                    mViewHolder.icon.setImageResource(R.drawable.music);
-
-                } else if (sub_ext.equalsIgnoreCase("png") ||
-                        sub_ext.equalsIgnoreCase("jpg") ||
-                        sub_ext.equalsIgnoreCase("jpeg")||
-                        sub_ext.equalsIgnoreCase("gif") ||
-                        sub_ext.equalsIgnoreCase("tiff")) {
-
-                    if(thumbnail_flag && file.length() != 0) {
-                        Bitmap thumb = mThumbnail.isBitmapCached(file.getPath());
-
-                        if (thumb == null) {
-                            final Handler handle = new Handler(new Handler.Callback() {
-                                public boolean handleMessage(Message msg) {
-                                    notifyDataSetChanged();
+                        return true;
+                    }
+                });
 
-                                    return true;
-                                }
-                            });
+                /* ThumbnailCreator takes the disk cache when it is made */
+                ThumbnailDiskCache.setDirectory(mContext.getCacheDir());
+                mThumbnail = new ThumbnailCreator(52, 52,
+                        Math.min(4, Runtime.getRuntime().availableProcessors()), mArrivals);
+            }
 
-                            mThumbnail.createNewThumbnail(mDataSource, mFileMang.getCurrentDir(), handle);
+            mViewHolder.path = file.getPath();
 
-                            if (!mThumbnail.isAlive())
-                                mThumbnail.start();
+            if(!file.isDirectory()) {
+                if(file.getType().isThumbnailable() && thumbnail_flag &&
+                        file.getSize() != 0 && !file.isInArchive()) {
+                    Bitmap thumb = ThumbnailCache.getInstance().get(file.getPath());
 
-                        } else {
-                            mViewHolder.icon.setImageBitmap(thumb);
-                        }
+                    if (thumb == null) {
+                        mThumbnail.request(file, position);
+                        mViewHolder.icon.setImageResource(file.getType().getIcon());
 
                     } else {
-                        mViewHolder.icon.setImageResource(R.drawable.image);
+                        mViewHolder.icon.setImageBitmap(thumb);
                     }
 
-                } else if (sub_ext.equalsIgnoreCase("zip")  ||
-                        sub_ext.equalsIgnoreCase("gzip") ||
-                        sub_ext.equalsIgnoreCase("gz")) {
-
-                    mViewHolder.icon.setImageResource(R.drawable.zip);
-
-                } else if(sub_ext.equalsIgnoreCase("m4v") ||
-                        sub_ext.equalsIgnoreCase("wmv") ||
-                        sub_ext.equalsIgnoreCase("3gp") ||
-                        sub_ext.equalsIgnoreCase("mp4")) {
-
-                    mViewHolder.icon.setImageResource(R.drawable.movies);
-
-                } else if(sub_ext.equalsIgnoreCase("doc") ||
-                        sub_ext.equalsIgnoreCase("docx")) {
-
-                    mViewHolder.icon.setImageResource(R.drawable.word);
-
-                } else if(sub_ext.equalsIgnoreCase("xls") ||
-                        sub_ext.equalsIgnoreCase("xlsx")) {
-
-                    mViewHolder.icon.setImageResource(R.drawable.excel);
-
-                } else if(sub_ext.equalsIgnoreCase("ppt") ||
-                        sub_ext.equalsIgnoreCase("pptx")) {
-
-                    mViewHolder.icon.setImageResource(R.drawable.ppt);
-
-                } else if(sub_ext.equalsIgnoreCase("html")) {
-                    mViewHolder.icon.setImageResource(R.drawable.html32);
-
-                } else if(sub_ext.equalsIgnoreCase("xml")) {
-                    mViewHolder.icon.setImageResource(R.drawable.xml32);
-
-                } else if(sub_ext.equalsIgnoreCase("conf")) {
-                    mViewHolder.icon.setImageResource(R.drawable.config32);
-
-                } else if(sub_ext.equalsIgnoreCase("apk")) {
-                    mViewHolder.icon.setImageResource(R.drawable.appicon);
-
-                } else if(sub_ext.equalsIgnoreCase("jar")) {
-                    mViewHolder.icon.setImageResource(R.drawable.jar32);
-
                 } else {
-                    mViewHolder.icon.setImageResource(R.drawable.text);
+                    mViewHolder.icon.setImageResource(file.getType().getIcon());
                 }
 
-            } else if (file != null && file.isDirectory()) {
-                if (file.canRead() && file.list().length > 0)
+            } else {
+                if (num_items > 0)
                     mViewHolder.icon.setImageResource(R.drawable.folder_full);
                 else
                     mViewHolder.icon.setImageResource(R.drawable.folder);
             }
 
-            String permission = getFilePermissions(file);
+            String permission = file.getPermissions();
 
-            if(file.isFile()) {
-                double size = file.length();
+            if(!file.isDirectory()) {
+                double size = file.getSize();
                 if (size > GB)
                     display_size = String.format("%.2f Gb ", (double)size / GB);
                 else if (size < GB && size > MG)
@@ -462,6 +904,407 @@ public class EventHandler implements OnClickListener {
 
     }
 
+    /*
+     * Moves FileManager to another directory and reads its entries off the
+     * UI thread, so the stat of every file is done before the list sees it.
+     * Directories not in the cache arrive in batches as they are read, the
+     * first one replacing what the list showed before. The sorted listing
+     * replaces the batches once the whole directory has been read.
+     */
+    private class ListingTask extends AsyncTask<Void, ArrayList<FileEntry>, ArrayList<FileEntry>>
+            implements FileManager.ListingListener {
+        private final int kind;
+        private final String path;
+        private final boolean fullPath;
+        private int generation;
+        private String dir;
+        private boolean started = false;
+
+        private ListingTask(int kind, String path, boolean fullPath) {
+            this.kind = kind;
+            this.path = path;
+            this.fullPath = fullPath;
+        }
+
+        /* the user moved on after this listing was started */
+        private boolean isStale() {
+            return generation != mGeneration;
+        }
+
+        @Override
+        public boolean onStart() {
+            return !isStale();
+        }
+
+        @Override
+        public boolean onEntries(ArrayList<FileEntry> batch) {
+            if(isStale())
+                return false;
+
+            publishProgress(batch);
+            return true;
+        }
+
+        @Override
+        protected ArrayList<FileEntry> doInBackground(Void... params) {
+            ArrayList<FileEntry> list;
+
+            mFileMang.setListingListener(this);
+            try {
+                list = navigate();
+            } finally {
+                mFileMang.setListingListener(null);
+            }
+
+            dir = mFileMang.getCurrentDir();
+            return list;
+        }
+
+        private ArrayList<FileEntry> navigate() {
+            ArrayList<FileEntry> list;
+
+            switch(kind) {
+                case LIST_HOME:
+                    list = mFileMang.setHomeDir(path);
+                    break;
+
+                case LIST_PREVIOUS:
+                    list = mFileMang.getPreviousDir();
+                    break;
+
+                case LIST_REFRESH:
+                    list = mFileMang.getNextDir(mFileMang.getCurrentDir(), true);
+                    break;
+
+                default:
+                    list = mFileMang.getNextDir(path, fullPath);
+                    break;
+            }
+
+            return list;
+        }
+
+        @Override
+        protected void onProgressUpdate(ArrayList<FileEntry>... batches) {
+            if(isStale())
+                return;
+
+            if(!started) {
+                started = true;
+                /* rows of the old folder may have asked for thumbnails meanwhile */
+                stopThumbnailThread();
+                mDataSource.clear();
+                if(mPathLabel != null)
+                    mPathLabel.setText(mFileMang.getCurrentDir());
+            }
+
+            for(ArrayList<FileEntry> batch : batches)
+                mDataSource.addAll(batch);
+
+            if(mDelegate != null)
+                mDelegate.notifyDataSetChanged();
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<FileEntry> list) {
+            if(isStale())
+                return;
+
+            if(!started)
+                stopThumbnailThread();
+            updateDirectory(list);
+
+            if(mPathLabel != null)
+                mPathLabel.setText(dir);
+        }
+    }
+
+    /*
+     * Runs a search off the UI thread and lets the user pick a result, whose
+     * folder is then opened.
+     */
+    private class SearchTask extends AsyncTask<Void, Void, ArrayList<String>> {
+        private static final int MAX_RESULTS = 500;
+        private final String query;
+
+        private SearchTask(String query) {
+            this.query = query;
+        }
+
+        @Override
+        protected ArrayList<String> doInBackground(Void... params) {
+            return mIndex.search(query, false, MAX_RESULTS);
+        }
+
+        @Override
+        protected void onPostExecute(final ArrayList<String> found) {
+            if(found.isEmpty()) {
+                Toast.makeText(mContext, "Nothing found for " + query, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            CharSequence[] names = new CharSequence[found.size()];
+            for(int i = 0; i < names.length; i++)
+                names[i] = found.get(i);
+
+            AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
+            builder.setTitle(found.size() + " found for " + query);
+            builder.setItems(names, new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface dialog, int which) {
+                    File file = new File(found.get(which));
+
+                    stopThumbnailThread();
+                    openDirectory(file.isDirectory() ? file.getPath() : file.getParent(), true);
+                }
+            });
+            builder.create().show();
+        }
+    }
+
+    /*
+     * Runs a DuplicateFinder behind a progress dialog, then lists the sets
+     * of duplicates with the space each would give back.
+     */
+    private class DuplicateTask extends AsyncTask<Void, ProgressTracker.Progress, DuplicateFinder.Result>
+            implements ProgressTracker.Listener {
+        private final DuplicateFinder finder;
+        private final File root;
+        private ProgressDialog dialog;
+
+        private DuplicateTask(File root) {
+            this.finder = new DuplicateFinder(Runtime.getRuntime().availableProcessors());
+            this.root = root;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            dialog = ProgressDialog.show(mContext, "Finding duplicates",
+                    "Looking through " + root.getName() + "...", true, true,
+                    new DialogInterface.OnCancelListener() {
+                        public void onCancel(DialogInterface d) {
+                            finder.cancel();
+                        }
+                    });
+        }
+
+        @Override
+        public void onProgress(ProgressTracker.Progress progress) {
+            publishProgress(progress);
+        }
+
+        @Override
+        protected DuplicateFinder.Result doInBackground(Void... params) {
+            finder.setProgressTracker(new ProgressTracker(this));
+            return finder.find(root, 1);
+        }
+
+        @Override
+        protected void onProgressUpdate(ProgressTracker.Progress... values) {
+            ProgressTracker.Progress p = values[values.length - 1];
+
+            dialog.setMessage("Comparing " + p.filesDone + " of " + p.totalFiles +
+                    " files\n" + formatSize(p.bytesDone) + " of " + formatSize(p.totalBytes));
+        }
+
+        @Override
+        protected void onPostExecute(DuplicateFinder.Result result) {
+            dialog.dismiss();
+
+            if(!result.isComplete())
+                return;
+
+            final ArrayList<DuplicateFinder.Group> groups = result.getGroups();
+            if(groups.isEmpty()) {
+                Toast.makeText(mContext, "No duplicates found", Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            CharSequence[] items = new CharSequence[groups.size()];
+            for(int i = 0; i < items.length; i++) {
+                DuplicateFinder.Group g = groups.get(i);
+
+                items[i] = g.getPaths().size() + " x " + new File(g.getPaths().get(0)).getName() +
+                        " (" + formatSize(g.getSize()) + ")";
+            }
+
+            AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
+            builder.setTitle(formatSize(result.getReclaimable()) + " in duplicates");
+            builder.setItems(items, new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface d, int which) {
+                    stopThumbnailThread();
+                    openDirectory(new File(groups.get(which).getPaths().get(0)).getParent(), true);
+                }
+            });
+            builder.setPositiveButton("Delete extra copies", new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface d, int which) {
+                    final ArrayList<String> extras = new ArrayList<String>();
+                    final ArrayList<String> originals = new ArrayList<String>();
+
+                    for(DuplicateFinder.Group g : groups) {
+                        for(String extra : g.getExtras()) {
+                            extras.add(extra);
+                            originals.add(g.getOriginal());
+                        }
+                    }
+
+                    AlertDialog.Builder confirm = new AlertDialog.Builder(mContext);
+                    confirm.setTitle("Warning ");
+                    confirm.setIcon(R.drawable.warning);
+                    confirm.setMessage("Deleting " + extras.size() + " copies, keeping the first " +
+                            "file of each set, cannot be undone. Are you sure?");
+                    confirm.setNegativeButton("Cancel", new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int which) {
+                            dialog.dismiss();
+                        }
+                    });
+                    confirm.setPositiveButton("Delete", new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int which) {
+                            enqueue(new Operation(DUPLICATE_TYPE,
+                                    extras.toArray(new String[extras.size()]),
+                                    originals.toArray(new String[originals.size()])));
+                        }
+                    });
+                    confirm.create().show();
+                }
+            });
+            builder.setNegativeButton("Close", new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface d, int which) {
+                    d.dismiss();
+                }
+            });
+            builder.create().show();
+        }
+    }
+
+    /*
+     * Walks the current directory for matches and adds each to an open
+     * list as it is found. Closing the list stops the walk.
+     */
+    private class LiveSearchTask extends AsyncTask<Void, File, Integer>
+            implements FileSearcher.Listener {
+        private static final int MAX_RESULTS = 500;
+        private final FileSearcher searcher;
+        private final FileSearcher.Query query;
+        private final String title;
+        private ArrayAdapter<String> results;
+        private AlertDialog dialog;
+
+        private LiveSearchTask(FileSearcher.Query query, String title) {
+            this.searcher = new FileSearcher(Runtime.getRuntime().availableProcessors());
+            this.query = query;
+            this.title = title;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            results = new ArrayAdapter<String>(mContext, android.R.layout.simple_list_item_1,
+                    new ArrayList<String>());
+
+            AlertDialog.Builder builder = new AlertDialog.Builder(mContext);
+            builder.setTitle("Searching for " + title + "...");
+            builder.setAdapter(results, new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface d, int which) {
+                    File file = new File(results.getItem(which));
+
+                    searcher.cancel();
+                    stopThumbnailThread();
+                    openDirectory(file.isDirectory() ? file.getPath() : file.getParent(), true);
+                }
+            });
+            builder.setNegativeButton("Stop", new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface d, int which) {
+                    searcher.cancel();
+                }
+            });
+            builder.setOnCancelListener(new DialogInterface.OnCancelListener() {
+                public void onCancel(DialogInterface d) {
+                    searcher.cancel();
+                }
+            });
+
+            dialog = builder.create();
+            dialog.show();
+        }
+
+        @Override
+        public void onMatch(File file) {
+            publishProgress(file);
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return searcher.search(new File(mFileMang.getCurrentDir()), query, MAX_RESULTS, this);
+        }
+
+        @Override
+        protected void onProgressUpdate(File... files) {
+            for(File file : files)
+                results.add(file.getPath());
+        }
+
+        @Override
+        protected void onPostExecute(Integer found) {
+            if(searcher.isCancelled())
+                return;
+
+            if(found == 0) {
+                dialog.dismiss();
+                Toast.makeText(mContext, "Nothing found for " + title, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            dialog.setTitle((found == MAX_RESULTS ? "First " : "") + found + " found for " + title);
+        }
+    }
+
+    /*
+     * Extracts one entry of a zip behind a spinner and hands it to a viewer.
+     */
+    private class EntryTask extends AsyncTask<Void, Void, File> {
+        private final String path;
+        private ProgressDialog dialog;
+
+        private EntryTask(String path) {
+            this.path = path;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            dialog = ProgressDialog.show(mContext, "Extracting", "Extracting " +
+                    new File(path).getName() + "...");
+        }
+
+        @Override
+        protected File doInBackground(Void... params) {
+            File cache = mContext.getExternalCacheDir();
+
+            if(cache == null)
+                cache = mContext.getCacheDir();
+            return mFileMang.extractEntry(path, new File(cache, "zip"));
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            dialog.dismiss();
+
+            if(file == null) {
+                Toast.makeText(mContext, "Could not extract " + new File(path).getName(),
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            Intent view = new Intent(Intent.ACTION_VIEW);
+            view.setDataAndType(Uri.fromFile(file), FileType.forName(file.getName()).getMimeType());
+
+            try {
+                mContext.startActivity(view);
+            } catch (ActivityNotFoundException e) {
+                Toast.makeText(mContext, "Sorry, couldn't find anything to open " +
+                        file.getName(), Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
     /**
      * A private inner class of EventHandler used to perform time extensive 
      * operations. So the user does not think the the application has hung, 
@@ -474,14 +1317,17 @@ public class EventHandler implements OnClickListener {
      *
      *
      */
-    private class BackgroundWork extends AsyncTask<String, Void, ArrayList<String>> {
-        private String file_name;
+    private class BackgroundWork extends AsyncTask<Void, ProgressTracker.Progress, ArrayList<String>>
+            implements ProgressTracker.Listener {
+        private static final int PROGRESS_MAX = 1000;
+        private final Operation op;
         private ProgressDialog pr_dialog;
         private int type;
-        private int copy_rtn;
+        private volatile int current = 0;
 
-        private BackgroundWork(int type) {
-            this.type = type;
+        private BackgroundWork(Operation op) {
+            this.op = op;
+            this.type = op.type;
         }
 
         /**
@@ -490,51 +1336,143 @@ public class EventHandler implements OnClickListener {
          */
         @Override
         protected void onPreExecute() {
+            pr_dialog = new ProgressDialog(mContext);
+            pr_dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            pr_dialog.setMax(PROGRESS_MAX);
+            pr_dialog.setIndeterminate(true);
+            pr_dialog.setCancelable(false);
 
             switch(type) {
                 case COPY_TYPE:
-                    pr_dialog = ProgressDialog.show(mContext, "Copying",
-                            "Copying file...",
-                            true, false);
+                    pr_dialog.setTitle(op.move ? "Moving" : "Copying");
+                    pr_dialog.setMessage(op.move ? "Moving file..." : "Copying file...");
                     break;
 
 
                 case DELETE_TYPE:
-                    pr_dialog = ProgressDialog.show(mContext, "Deleting",
-                            "Deleting files...",
-                            true, false);
+                    pr_dialog.setTitle("Deleting");
+                    pr_dialog.setMessage("Deleting files...");
+                    break;
+
+                case DUPLICATE_TYPE:
+                    pr_dialog.setTitle("Deleting");
+                    pr_dialog.setMessage("Deleting duplicates...");
+                    break;
+
+                case ZIP_TYPE:
+                    pr_dialog.setTitle("Zipping");
+                    pr_dialog.setMessage("Zipping files...");
+                    break;
+
+                case UNZIP_TYPE:
+                    pr_dialog.setTitle("Extracting");
+                    pr_dialog.setMessage("Extracting files...");
                     break;
             }
+            pr_dialog.show();
         }
 
         /**
-         * background thread here
+         * Called by FileManager on the worker threads, at most a few times
+         * a second.
          */
         @Override
-        protected ArrayList<String> doInBackground(String... params) {
+        public void onProgress(ProgressTracker.Progress progress) {
+            publishProgress(progress);
+        }
 
-            switch(type) {
+        /**
+         * Turns the latest progress snapshot into the dialog's bar and message.
+         */
+        @Override
+        protected void onProgressUpdate(ProgressTracker.Progress... values) {
+            ProgressTracker.Progress p = values[values.length - 1];
+            double fraction = p.getFraction();
+            StringBuilder msg = new StringBuilder();
+
+            if(op.targets.length > 1)
+                msg.append("Item ").append(current + 1).append(" of ")
+                   .append(op.targets.length).append(": ");
+
+            if(fraction >= 0) {
+                pr_dialog.setIndeterminate(false);
+                pr_dialog.setProgress((int)(fraction * PROGRESS_MAX));
+            }
 
-                case COPY_TYPE:
-                        copy_rtn = mFileMang.copyToDirectory(params[0], params[1]);
+            if(p.currentFile != null && p.currentFile.length() > 0)
+                msg.append(new File(p.currentFile).getName()).append("\n");
 
-                        if(delete_after_copy)
-                            mFileMang.deleteTarget(params[0]);
+            if(p.totalFiles >= 0)
+                msg.append(p.filesDone).append(" of ").append(p.totalFiles).append(" files");
+            else
+                msg.append(p.filesDone).append(" files");
 
-                    delete_after_copy = false;
-                    return null;
+            msg.append(" | ").append(formatSize(p.bytesDone));
+            if(p.totalBytes >= 0)
+                msg.append(" of ").append(formatSize(p.totalBytes));
 
+            if(p.smoothedRate > 0)
+                msg.append("\n").append(formatSize((long)p.smoothedRate)).append("/s");
+            if(p.eta >= 0)
+                msg.append(", ").append(formatTime(p.eta)).append(" left");
 
+            pr_dialog.setMessage(msg.toString());
+        }
 
-                case DELETE_TYPE:
-                    int size = params.length;
+        /**
+         * background thread here. Every target of the operation is worked
+         * through here and the ones that failed are returned.
+         */
+        @Override
+        protected ArrayList<String> doInBackground(Void... params) {
+            ArrayList<String> failed = new ArrayList<String>();
+            int size = op.targets.length;
+
+            mFileMang.setProgressListener(this);
+
+            try {
+                for(int i = 0; i < size; i++) {
+                    current = i;
+
+                    switch(type) {
+
+                        case COPY_TYPE:
+                            int copy_rtn;
+
+                            if(op.move)
+                                copy_rtn = mFileMang.moveToDirectory(op.targets[i], op.dest);
+                            else
+                                copy_rtn = mFileMang.copyToDirectory(op.targets[i], op.dest);
 
-                    for(int i = 0; i < size; i++)
-                        mFileMang.deleteTarget(params[i]);
+                            if(copy_rtn != 0)
+                                failed.add(op.targets[i]);
+                            break;
 
-                    return null;
+                        case DELETE_TYPE:
+                            failed.addAll(mFileMang.deleteTree(op.targets[i]).getFailures());
+                            break;
+
+                        case DUPLICATE_TYPE:
+                            if(mFileMang.deleteDuplicate(op.targets[i], op.originals[i]) != 0)
+                                failed.add(op.targets[i]);
+                            break;
+
+                        case ZIP_TYPE:
+                            if(mFileMang.createZipFile(op.targets[i]) != 0)
+                                failed.add(op.targets[i]);
+                            break;
+
+                        case UNZIP_TYPE:
+                            if(mFileMang.extractZipFiles(op.targets[i], op.dest) != 0)
+                                failed.add(op.targets[i]);
+                            break;
+                    }
+                }
+                return failed;
+
+            } finally {
+                mFileMang.setProgressListener(null);
             }
-            return null;
         }
 
         /**
@@ -548,23 +1486,84 @@ public class EventHandler implements OnClickListener {
 
                 case COPY_TYPE:
 
-                    if(copy_rtn == 0)
-                        Toast.makeText(mContext, "File successfully copied and pasted",
+                    if(file.isEmpty() && op.move)
+                        Toast.makeText(mContext, op.targets.length > 1 ?
+                                        op.targets.length + " items successfully moved" :
+                                        "File successfully moved",
+                                Toast.LENGTH_SHORT).show();
+                    else if(file.isEmpty())
+                        Toast.makeText(mContext, op.targets.length > 1 ?
+                                        op.targets.length + " items successfully copied and pasted" :
+                                        "File successfully copied and pasted",
                                 Toast.LENGTH_SHORT).show();
                     else
-                        Toast.makeText(mContext, "Copy pasted failed", Toast.LENGTH_SHORT).show();
+                        Toast.makeText(mContext, "Copy pasted failed for " + file.size() + " item(s)",
+                                Toast.LENGTH_SHORT).show();
+                    break;
+
+                case DUPLICATE_TYPE:
+
+                    Toast.makeText(mContext, (op.targets.length - file.size()) + " duplicate(s) deleted" +
+                            (file.isEmpty() ? "" : ", " + file.size() + " kept as they changed " +
+                                    "or could not be deleted"),
+                            Toast.LENGTH_SHORT).show();
+                    break;
+
+                case ZIP_TYPE:
 
-                    pr_dialog.dismiss();
-                    mInfoLabel.setText("");
+                    Toast.makeText(mContext, file.isEmpty() ? "Zip file created" :
+                            "Could not zip " + new File(file.get(0)).getName(),
+                            Toast.LENGTH_SHORT).show();
+                    break;
+
+                case UNZIP_TYPE:
+
+                    Toast.makeText(mContext, file.isEmpty() ? "Zip file extracted" :
+                            "Some entries could not be extracted", Toast.LENGTH_SHORT).show();
                     break;
 
                 case DELETE_TYPE:
 
-                    updateDirectory(mFileMang.getNextDir(mFileMang.getCurrentDir(), true));
-                    pr_dialog.dismiss();
-                    mInfoLabel.setText("");
+                    if(!file.isEmpty())
+                        Toast.makeText(mContext, "Could not delete " + file.size() + " item(s), " +
+                                        "first was " + file.get(0), Toast.LENGTH_LONG).show();
                     break;
             }
+
+            pr_dialog.dismiss();
+            /* files copied or cut with multi-select are still waiting to be pasted */
+            if(!isHoldingFiles())
+                mInfoLabel.setText("");
+            runNextOperation();
+        }
+    }
+
+    /*
+     * One queued job for BackgroundWork: a type, the targets it applies to and
+     * for copies the directory to copy into.
+     */
+    private static class Operation {
+        final int type;
+        final String[] targets;
+        final String dest;
+        final boolean move;
+        /* for duplicates, the copy each target must still match */
+        final String[] originals;
+
+        Operation(int type, String[] targets, String dest, boolean move) {
+            this.type = type;
+            this.targets = targets;
+            this.dest = dest;
+            this.move = move;
+            this.originals = null;
+        }
+
+        Operation(int type, String[] targets, String[] originals) {
+            this.type = type;
+            this.targets = targets;
+            this.dest = null;
+            this.move = false;
+            this.originals = originals;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,164 @@
+package com.manager;
+
+import java.io.File;
+import java.util.Locale;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+/**
+ * Everything the list needs to show about one file or folder, read once when
+ * the directory is listed. Objects of this class never change, so a listing
+ * can be built on a background thread and handed to the UI as is. The keys
+ * FileSorter orders entries by are made here too, once per entry.
+ */
+public final class FileEntry {
+    /* file type bits of st_mode */
+    private static final int S_IFMT = 		0170000;
+    private static final int S_IFDIR = 		0040000;
+
+    private final String mName;
+    private final String mPath;
+    private final boolean mDirectory;
+    private final boolean mCanRead;
+    private final boolean mCanWrite;
+    private final long mSize;
+    private final long mModified;
+    private final int mChildCount;
+    private final byte[] mNameKey;
+    private final String mExtension;
+    private final FileType mType;
+    private final boolean mInArchive;
+
+    private FileEntry(String name, String path, boolean directory, boolean canRead,
+                      boolean canWrite, long size, long modified, int childCount, boolean inArchive) {
+        mName = name;
+        mPath = path;
+        mDirectory = directory;
+        mCanRead = canRead;
+        mCanWrite = canWrite;
+        mSize = size;
+        mModified = modified;
+        mChildCount = childCount;
+        mNameKey = FileSorter.nameKey(name);
+
+        int dot = name.lastIndexOf('.');
+        mExtension = directory || dot < 1 ? "" : name.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+        mType = directory ? FileType.FOLDER : FileType.forName(name);
+        mInArchive = inArchive;
+    }
+
+    /* (non-Javadoc)
+     * An entry of a zip listed by ZipArchive. It can be read but not written.
+     */
+    static FileEntry inArchive(String name, String path, boolean directory, long size,
+                               long modified, int childCount) {
+        return new FileEntry(name, path, directory, true, false, size, modified, childCount, true);
+    }
+
+    /**
+     * Reads the attributes of file. Type, size and modification time come
+     * from a single stat() where the platform allows it. For a readable
+     * folder the number of entries in it is counted as well.
+     *
+     * @param file	the file or folder
+     * @return	its entry
+     */
+    public static FileEntry fromFile(File file) {
+        String path = file.getPath();
+        boolean directory;
+        long size, modified;
+
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                StructStat st = Os.stat(path);
+
+                directory = (st.st_mode & S_IFMT) == S_IFDIR;
+                size = st.st_size;
+                modified = st.st_mtime * 1000;
+
+            } catch (ErrnoException e) {
+                /* a dangling link or a file removed while listing */
+                return new FileEntry(file.getName(), path, false, false, false, 0, 0, -1, false);
+            }
+
+        } else {
+            directory = file.isDirectory();
+            size = file.length();
+            modified = file.lastModified();
+        }
+
+        boolean canRead = file.canRead();
+        int children = -1;
+
+        if(directory && canRead) {
+            String[] list = file.list();
+            children = list == null ? 0 : list.length;
+        }
+
+        return new FileEntry(file.getName(), path, directory, canRead, file.canWrite(),
+                directory ? 0 : size, modified, children, false);
+    }
+
+    /** @return	the name of the file without its path */
+    public String getName() { return mName; }
+
+    /** @return	the full path of the file */
+    public String getPath() { return mPath; }
+
+    /** @return	true for a folder */
+    public boolean isDirectory() { return mDirectory; }
+
+    /** @return	true if the file can be read */
+    public boolean canRead() { return mCanRead; }
+
+    /** @return	true if the file can be written */
+    public boolean canWrite() { return mCanWrite; }
+
+    /** @return	true if the name starts with a dot */
+    public boolean isHidden() { return mName.length() > 0 && mName.charAt(0) == '.'; }
+
+    /** @return	the size in bytes, 0 for folders */
+    public long getSize() { return mSize; }
+
+    /** @return	the last modification time in milliseconds */
+    public long getLastModified() { return mModified; }
+
+    /** @return	the number of entries in a folder, -1 for files and unreadable folders */
+    public int getChildCount() { return mChildCount; }
+
+    /** @return	true for an entry inside a zip, see ZipArchive */
+    public boolean isInArchive() { return mInArchive; }
+
+    /** @return	the sort key of the name, see FileSorter */
+    byte[] getNameKey() { return mNameKey; }
+
+    /** @return	the extension in lower case, empty for folders and files without one */
+    public String getExtension() { return mExtension; }
+
+    /** @return	what kind of file this is, FileType.FOLDER for folders */
+    public FileType getType() { return mType; }
+
+    /**
+     * @return	the permissions the way the list rows show them, e.g. "-drw"
+     */
+    public String getPermissions() {
+        String per = "-";
+
+        if(mDirectory)
+            per += "d";
+        if(mCanRead)
+            per += "r";
+        if(mCanWrite)
+            per += "w";
+
+        return per;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,798 @@
+package com.manager;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.util.Log;
+
+/**
+ * A persistent index of every file and folder name under a root directory,
+ * answering substring and prefix searches without walking the tree. Like
+ * FileManager this class has no reference to any GUI activity and does no
+ * threading of its own; build() and refresh() are slow and belong on a
+ * background thread, search() is fast and can be called from anywhere.
+ * <br>
+ * <br>
+ * The index is one file that is memory mapped when loaded, so opening it
+ * costs no more than reading its header. Each entry is stored as the index
+ * of its parent and its name, never as a full path. For every trigram
+ * (three lower case characters) found in any name the file holds the sorted
+ * list of entries containing it. A search intersects the lists of the
+ * trigrams in the query and checks only the names left over.
+ * <br>
+ * <br>
+ * Changes made after the file was written are kept in memory: FileManager
+ * reports the paths it adds and removes, and refresh() finds folders whose
+ * modification time moved and lists them again. Once too many changes pile
+ * up, needsRebuild() asks for a new file.
+ * <br>
+ * <br>
+ * File layout, all numbers big endian:
+ * <pre>
+ * int  magic, version
+ * long time the index was built
+ * int  entries, dirs, trigrams, postings, name bytes
+ * int  parent[entries]			entry 0 is the root, its parent is -1
+ * int  nameStart[entries + 1]	offsets into the name bytes
+ * int  dirEntry[dirs]			the entries that are folders
+ * long dirModified[dirs]		their modification times when indexed
+ * int  trigram[trigrams]		sorted
+ * int  postingStart[trigrams + 1]
+ * int  posting[postings]		entry numbers, sorted within each trigram
+ * byte names[name bytes]		UTF-8, the root's is its full path
+ * </pre>
+ */
+public class FileIndex {
+    private static final int MAGIC =			0x464d4958;
+    private static final int VERSION =			1;
+    private static final int HEADER_SIZE =		4 + 4 + 8 + 4 * 5;
+
+    /* changes kept in memory before asking for a rebuild */
+    private static final int REBUILD_CHANGES =	5000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final File mRoot;
+    private final String mRootPath;
+    private final AtomicBoolean mBuilding = new AtomicBoolean(false);
+    private volatile Snapshot mSnapshot;
+
+    /* paths added and removed since the file was written, each with the
+     * change number it was made at */
+    private final LinkedHashMap<String, Long> mAdded = new LinkedHashMap<String, Long>();
+    private final HashMap<String, Long> mRemoved = new HashMap<String, Long>();
+    private final HashMap<Integer, Long> mChecked = new HashMap<Integer, Long>();
+    private long mChange = 0;
+
+    /**
+     * @param file	where the index is kept
+     * @param root	the directory that is indexed
+     */
+    public FileIndex(File file, File root) {
+        mFile = file;
+        mRoot = root;
+        mRootPath = canonical(root);
+    }
+
+    /**
+     * Maps the index file written by an earlier build().
+     *
+     * @return	true if an index for this root was loaded
+     */
+    public boolean load() {
+        try {
+            Snapshot snap = Snapshot.map(mFile);
+
+            if(snap == null || !snap.name(0).equals(mRoot.getPath()))
+                return false;
+
+            mSnapshot = snap;
+            return true;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return	true once an index has been loaded or built
+     */
+    public boolean isReady() {
+        return mSnapshot != null;
+    }
+
+    /**
+     * @return	when the loaded index was built, 0 if there is none
+     */
+    public long getBuildTime() {
+        Snapshot snap = mSnapshot;
+
+        return snap == null ? 0 : snap.built;
+    }
+
+    /**
+     * @return	true if there is no index or too many changes are held in
+     * 			memory and build() should be run
+     */
+    public synchronized boolean needsRebuild() {
+        return mSnapshot == null || mAdded.size() + mRemoved.size() > REBUILD_CHANGES;
+    }
+
+    /**
+     * Walks the whole root, writes a new index file and maps it. Changes
+     * reported while this runs are kept. Only one build runs at a time.
+     *
+     * @param parallelism	the number of folders listed at the same time
+     * @return	true if a new index was written
+     */
+    public boolean build(int parallelism) {
+        if(!mBuilding.compareAndSet(false, true))
+            return false;
+
+        try {
+            long start;
+
+            synchronized(this) {
+                start = mChange;
+            }
+
+            Builder builder = new Builder(mRoot);
+            builder.walk(parallelism);
+
+            File temp = new File(mFile.getPath() + ".tmp");
+            builder.write(temp);
+
+            if(!temp.renameTo(mFile)) {
+                temp.delete();
+                return false;
+            }
+
+            Snapshot snap = Snapshot.map(mFile);
+            if(snap == null)
+                return false;
+
+            synchronized(this) {
+                mSnapshot = snap;
+                mChecked.clear();
+                dropChanges(mAdded, start);
+                dropChanges(mRemoved, start);
+            }
+            return true;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            return false;
+
+        } finally {
+            mBuilding.set(false);
+        }
+    }
+
+    /**
+     * Records that path, and everything under it if it is a folder, now
+     * exists.
+     *
+     * @param path	the full path of the file or folder
+     */
+    public void added(String path) {
+        ArrayList<String> paths = new ArrayList<String>();
+        ArrayList<File> stack = new ArrayList<File>();
+
+        path = underRoot(path);
+
+        paths.add(path);
+        stack.add(new File(path));
+
+        while(!stack.isEmpty()) {
+            File dir = stack.remove(stack.size() - 1);
+            String[] list = dir.list();
+
+            if(list == null)
+                continue;
+
+            for(String name : list) {
+                File child = new File(dir, name);
+
+                paths.add(child.getPath());
+                if(child.isDirectory())
+                    stack.add(child);
+            }
+        }
+
+        synchronized(this) {
+            long change = ++mChange;
+
+            for(String p : paths) {
+                mRemoved.remove(p);
+                mAdded.put(p, change);
+            }
+        }
+    }
+
+    /**
+     * Records that path, and everything under it, is gone.
+     *
+     * @param path	the full path of the file or folder
+     */
+    public synchronized void removed(String path) {
+        path = underRoot(path);
+        String under = path + "/";
+        Iterator<String> it = mAdded.keySet().iterator();
+
+        while(it.hasNext()) {
+            String p = it.next();
+
+            if(p.equals(path) || p.startsWith(under))
+                it.remove();
+        }
+
+        mRemoved.put(path, ++mChange);
+    }
+
+    /**
+     * Stats every indexed folder and lists again the ones whose modification
+     * time changed, so files added or removed by other apps are found.
+     *
+     * @return	the number of folders that had changed
+     */
+    public int refresh() {
+        Snapshot snap = mSnapshot;
+        HashMap<Integer, String> changed = new HashMap<Integer, String>();
+        HashMap<Integer, Long> times = new HashMap<Integer, Long>();
+
+        if(snap == null)
+            return 0;
+
+        for(int d = 0; d < snap.dirs; d++) {
+            int id = snap.dirEntry.get(d);
+            String path = snap.path(id);
+            long expect = snap.dirModified.get(d);
+            long now = new File(path).lastModified();
+
+            synchronized(this) {
+                Long seen = mChecked.get(id);
+
+                if(seen != null)
+                    expect = seen;
+            }
+
+            if(now != expect) {
+                changed.put(id, path);
+                times.put(id, now);
+            }
+        }
+
+        if(changed.isEmpty())
+            return 0;
+
+        /* what the index says each changed folder holds */
+        HashMap<Integer, HashSet<String>> indexed = new HashMap<Integer, HashSet<String>>();
+        for(Integer id : changed.keySet())
+            indexed.put(id, new HashSet<String>());
+
+        for(int id = 1; id < snap.entries; id++) {
+            HashSet<String> names = indexed.get(snap.parent.get(id));
+
+            if(names != null)
+                names.add(snap.name(id));
+        }
+
+        for(Map.Entry<Integer, String> e : changed.entrySet()) {
+            String path = e.getValue();
+            HashSet<String> names = indexed.get(e.getKey());
+            String[] list = new File(path).list();
+
+            if(list == null) {
+                removed(path);
+
+            } else {
+                HashSet<String> current = new HashSet<String>(Arrays.asList(list));
+
+                for(String name : names)
+                    if(!current.contains(name))
+                        removed(path + "/" + name);
+
+                for(String name : list)
+                    if(!names.contains(name))
+                        added(path + "/" + name);
+            }
+
+            synchronized(this) {
+                mChecked.put(e.getKey(), times.get(e.getKey()));
+            }
+        }
+
+        return changed.size();
+    }
+
+    /**
+     * Finds the files and folders whose name contains query, ignoring case.
+     *
+     * @param query		the text to look for
+     * @param prefix	true to only match names that start with query
+     * @param limit		the most results returned
+     * @return	the full paths found, at most limit of them
+     */
+    public ArrayList<String> search(String query, boolean prefix, int limit) {
+        LinkedHashSet<String> found = new LinkedHashSet<String>();
+        String q = query.toLowerCase(Locale.ENGLISH);
+        Snapshot snap = mSnapshot;
+        ArrayList<String> removed;
+        ArrayList<String> added;
+
+        if(q.length() == 0 || limit <= 0)
+            return new ArrayList<String>();
+
+        synchronized(this) {
+            removed = new ArrayList<String>(mRemoved.keySet());
+            added = new ArrayList<String>(mAdded.keySet());
+        }
+
+        if(snap != null) {
+            int[] candidates = snap.candidates(q);
+            int count = candidates == null ? snap.entries : candidates.length;
+
+            for(int i = 0; i < count && found.size() < limit; i++) {
+                int id = candidates == null ? i : candidates[i];
+
+                if(id == 0 || !matches(snap.name(id), q, prefix))
+                    continue;
+
+                String path = snap.path(id);
+                if(!isRemoved(path, removed))
+                    found.add(path);
+            }
+        }
+
+        for(int i = 0; i < added.size() && found.size() < limit; i++) {
+            String path = added.get(i);
+
+            if(matches(path.substring(path.lastIndexOf('/') + 1), q, prefix))
+                found.add(path);
+        }
+
+        return new ArrayList<String>(found);
+    }
+
+    /* (non-Javadoc)
+     * The same folder can be reached through links, /sdcard being one. Paths
+     * under the root are rewritten to start with the root the way it was
+     * given, so they match the paths the index holds.
+     */
+    private String underRoot(String path) {
+        String root = mRoot.getPath();
+
+        if(path.equals(root) || path.startsWith(root + "/"))
+            return path;
+
+        File file = new File(path);
+        File parent = file.getParentFile();
+        String canon = parent == null ? path : canonical(parent) + "/" + file.getName();
+
+        if(canon.startsWith(mRootPath + "/"))
+            return root + canon.substring(mRootPath.length());
+
+        return path;
+    }
+
+    private static String canonical(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /* (non-Javadoc)
+     * q is already in lower case.
+     */
+    private static boolean matches(String name, String q, boolean prefix) {
+        String n = name.toLowerCase(Locale.ENGLISH);
+
+        return prefix ? n.startsWith(q) : n.contains(q);
+    }
+
+    private static boolean isRemoved(String path, ArrayList<String> removed) {
+        for(String r : removed)
+            if(path.equals(r) || (path.startsWith(r) && path.charAt(r.length()) == '/'))
+                return true;
+
+        return false;
+    }
+
+    private static void dropChanges(HashMap<String, Long> changes, long before) {
+        Iterator<Long> it = changes.values().iterator();
+
+        while(it.hasNext())
+            if(it.next() <= before)
+                it.remove();
+    }
+
+    /* (non-Javadoc)
+     * The trigrams of a lower case name, each as one int, sorted and without
+     * repeats. Characters are cut to 10 bits, which only makes some lists
+     * longer than they need be; every hit is checked against the name.
+     */
+    private static int[] trigrams(String lower) {
+        int len = lower.length() - 2;
+
+        if(len <= 0)
+            return new int[0];
+
+        int[] keys = new int[len];
+        for(int i = 0; i < len; i++)
+            keys[i] = ((lower.charAt(i) & 0x3ff) << 20) |
+                      ((lower.charAt(i + 1) & 0x3ff) << 10) |
+                      (lower.charAt(i + 2) & 0x3ff);
+
+        Arrays.sort(keys);
+
+        int n = 1;
+        for(int i = 1; i < len; i++)
+            if(keys[i] != keys[n - 1])
+                keys[n++] = keys[i];
+
+        return n == len ? keys : Arrays.copyOf(keys, n);
+    }
+
+    /*
+     * A mapped index file.
+     */
+    private static final class Snapshot {
+        long built;
+        int entries, dirs, trigrams, postings;
+        IntBuffer parent, nameStart, dirEntry, trigram, postingStart, posting;
+        LongBuffer dirModified;
+        ByteBuffer names;
+
+        static Snapshot map(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            MappedByteBuffer buf;
+
+            try {
+                if(raf.length() < HEADER_SIZE)
+                    return null;
+
+                buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } finally {
+                raf.close();
+            }
+
+            if(buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                return null;
+
+            Snapshot s = new Snapshot();
+            s.built = buf.getLong();
+            s.entries = buf.getInt();
+            s.dirs = buf.getInt();
+            s.trigrams = buf.getInt();
+            s.postings = buf.getInt();
+            int nameBytes = buf.getInt();
+
+            long size = HEADER_SIZE + 4L * s.entries + 4L * (s.entries + 1) + 4L * s.dirs +
+                    8L * s.dirs + 4L * s.trigrams + 4L * (s.trigrams + 1) + 4L * s.postings + nameBytes;
+            if(size != buf.capacity() || s.entries < 1)
+                return null;
+
+            s.parent = ints(buf, s.entries);
+            s.nameStart = ints(buf, s.entries + 1);
+            s.dirEntry = ints(buf, s.dirs);
+            s.dirModified = longs(buf, s.dirs);
+            s.trigram = ints(buf, s.trigrams);
+            s.postingStart = ints(buf, s.trigrams + 1);
+            s.posting = ints(buf, s.postings);
+            s.names = bytes(buf, nameBytes);
+
+            return s;
+        }
+
+        String name(int id) {
+            int start = nameStart.get(id);
+            byte[] b = new byte[nameStart.get(id + 1) - start];
+
+            for(int i = 0; i < b.length; i++)
+                b[i] = names.get(start + i);
+
+            return new String(b, UTF8);
+        }
+
+        String path(int id) {
+            ArrayList<String> parts = new ArrayList<String>();
+            StringBuilder path = new StringBuilder();
+
+            for(int p = id; p >= 0; p = parent.get(p))
+                parts.add(name(p));
+
+            path.append(parts.get(parts.size() - 1));
+            for(int i = parts.size() - 2; i >= 0; i--)
+                path.append('/').append(parts.get(i));
+
+            return path.toString();
+        }
+
+        /*
+         * The entries holding every trigram of q, or null if q is too short
+         * to have trigrams and every entry has to be checked.
+         */
+        int[] candidates(String q) {
+            int[] keys = trigrams(q);
+            int[] slots = new int[keys.length];
+
+            if(keys.length == 0)
+                return null;
+
+            for(int i = 0; i < keys.length; i++) {
+                slots[i] = find(keys[i]);
+
+                if(slots[i] < 0)
+                    return new int[0];
+            }
+
+            /* start from the shortest list, it bounds the result */
+            int shortest = 0;
+            for(int i = 1; i < slots.length; i++)
+                if(length(slots[i]) < length(slots[shortest]))
+                    shortest = i;
+
+            int start = postingStart.get(slots[shortest]);
+            int[] result = new int[length(slots[shortest])];
+            for(int i = 0; i < result.length; i++)
+                result[i] = posting.get(start + i);
+
+            int n = result.length;
+            for(int k = 0; k < slots.length && n > 0; k++) {
+                if(k == shortest)
+                    continue;
+
+                int from = postingStart.get(slots[k]);
+                int to = postingStart.get(slots[k] + 1);
+                int kept = 0;
+
+                for(int i = 0; i < n; i++) {
+                    int at = search(result[i], from, to);
+
+                    if(at >= 0) {
+                        result[kept++] = result[i];
+                        from = at + 1;
+                    }
+                }
+                n = kept;
+            }
+
+            return n == result.length ? result : Arrays.copyOf(result, n);
+        }
+
+        private int length(int slot) {
+            return postingStart.get(slot + 1) - postingStart.get(slot);
+        }
+
+        private int find(int key) {
+            int lo = 0, hi = trigrams - 1;
+
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int k = trigram.get(mid);
+
+                if(k < key)
+                    lo = mid + 1;
+                else if(k > key)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        private int search(int id, int from, int to) {
+            int lo = from, hi = to - 1;
+
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int v = posting.get(mid);
+
+                if(v < id)
+                    lo = mid + 1;
+                else if(v > id)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        private static IntBuffer ints(ByteBuffer buf, int count) {
+            IntBuffer b = buf.slice().asIntBuffer();
+
+            b.limit(count);
+            buf.position(buf.position() + 4 * count);
+            return b;
+        }
+
+        private static LongBuffer longs(ByteBuffer buf, int count) {
+            LongBuffer b = buf.slice().asLongBuffer();
+
+            b.limit(count);
+            buf.position(buf.position() + 8 * count);
+            return b;
+        }
+
+        private static ByteBuffer bytes(ByteBuffer buf, int count) {
+            ByteBuffer b = buf.slice();
+
+            b.limit(count);
+            buf.position(buf.position() + count);
+            return b;
+        }
+    }
+
+    /*
+     * Collects the tree into plain arrays and writes them out.
+     */
+    private static final class Builder {
+        private final File root;
+        private final ConcurrentHashMap<File, Integer> ids = new ConcurrentHashMap<File, Integer>();
+        private final ArrayList<String> names = new ArrayList<String>();
+        private int[] parents = new int[1024];
+        private int[] dirEntries = new int[256];
+        private long[] dirTimes = new long[256];
+        private int dirs = 0;
+
+        Builder(File root) {
+            this.root = root;
+        }
+
+        void walk(int parallelism) {
+            ids.put(root, add(root.getPath(), -1, true, root.lastModified()));
+
+            new TreeWalker(parallelism).walk(root, new TreeWalker.Visitor() {
+                @Override
+                public File[] enterDirectory(File dir) {
+                    Integer id = ids.remove(dir);
+                    String[] list = dir.list();
+                    ArrayList<File> subs = new ArrayList<File>();
+
+                    if(list == null || id == null)
+                        return null;
+
+                    for(String name : list) {
+                        File child = new File(dir, name);
+                        boolean isDir = child.isDirectory();
+                        int childId = add(name, id, isDir, isDir ? child.lastModified() : 0);
+
+                        if(isDir && !TreeWalker.isLink(child)) {
+                            ids.put(child, childId);
+                            subs.add(child);
+                        }
+                    }
+
+                    return subs.toArray(new File[subs.size()]);
+                }
+
+                @Override
+                public void exitDirectory(File dir) {
+                }
+            });
+        }
+
+        private synchronized int add(String name, int parent, boolean dir, long modified) {
+            int id = names.size();
+
+            names.add(name);
+            if(id == parents.length)
+                parents = Arrays.copyOf(parents, id * 2);
+            parents[id] = parent;
+
+            if(dir) {
+                if(dirs == dirEntries.length) {
+                    dirEntries = Arrays.copyOf(dirEntries, dirs * 2);
+                    dirTimes = Arrays.copyOf(dirTimes, dirs * 2);
+                }
+                dirEntries[dirs] = id;
+                dirTimes[dirs++] = modified;
+            }
+            return id;
+        }
+
+        /*
+         * Trigram lists are counted in one pass over the names and filled
+         * in a second, so the only large array is the postings themselves.
+         */
+        synchronized void write(File file) throws IOException {
+            int entries = names.size();
+            HashMap<Integer, int[]> counts = new HashMap<Integer, int[]>();
+            int[] nameStart = new int[entries + 1];
+
+            for(int id = 0; id < entries; id++) {
+                String name = names.get(id);
+
+                nameStart[id + 1] = nameStart[id] + name.getBytes(UTF8).length;
+                if(id == 0)
+                    continue;
+
+                for(int key : trigrams(name.toLowerCase(Locale.ENGLISH))) {
+                    int[] c = counts.get(key);
+
+                    if(c == null)
+                        counts.put(key, new int[] {1});
+                    else
+                        c[0]++;
+                }
+            }
+
+            int[] keys = new int[counts.size()];
+            int k = 0;
+            for(Integer key : counts.keySet())
+                keys[k++] = key;
+            Arrays.sort(keys);
+
+            int[] postingStart = new int[keys.length + 1];
+            for(int i = 0; i < keys.length; i++)
+                postingStart[i + 1] = postingStart[i] + counts.get(keys[i])[0];
+            counts = null;
+
+            int[] postings = new int[postingStart[keys.length]];
+            int[] fill = Arrays.copyOf(postingStart, keys.length);
+
+            for(int id = 1; id < entries; id++)
+                for(int key : trigrams(names.get(id).toLowerCase(Locale.ENGLISH)))
+                    postings[fill[Arrays.binarySearch(keys, key)]++] = id;
+            fill = null;
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), 64 * 1024));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(entries);
+                out.writeInt(dirs);
+                out.writeInt(keys.length);
+                out.writeInt(postings.length);
+                out.writeInt(nameStart[entries]);
+
+                for(int i = 0; i < entries; i++)
+                    out.writeInt(parents[i]);
+                for(int i = 0; i <= entries; i++)
+                    out.writeInt(nameStart[i]);
+                for(int i = 0; i < dirs; i++)
+                    out.writeInt(dirEntries[i]);
+                for(int i = 0; i < dirs; i++)
+                    out.writeLong(dirTimes[i]);
+                for(int i = 0; i < keys.length; i++)
+                    out.writeInt(keys[i]);
+                for(int i = 0; i <= keys.length; i++)
+                    out.writeInt(postingStart[i]);
+                for(int i = 0; i < postings.length; i++)
+                    out.writeInt(postings[i]);
+                for(int i = 0; i < entries; i++)
+                    out.write(names.get(i).getBytes(UTF8));
+
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -2,12 +2,10 @@ package com.manager;
 
 import java.util.ArrayList;
 import java.util.Stack;
+import java.util.concurrent.Executor;
+import java.io.BufferedReader;
 import java.io.File;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 
 import android.util.Log;
@@ -28,10 +26,51 @@ import android.util.Log;
  *
  */
 public class FileManager {
-    private static final int BUFFER = 		2048;
+    /*
+     * Entries handed to a ListingListener at a time. The first batch is
+     * small so the top of the list can be shown as soon as possible.
+     */
+    private static final int FIRST_BATCH =		64;
+    private static final int LIST_BATCH =		1024;
+
     private boolean mShowHiddenFiles = false;
+    private int mSortOrder = FileSorter.SORT_NAME;
+    private boolean mDirsFirst = true;
+    private int mLastCopyStrategy = CopyEngine.STRATEGY_FAILED;
+    private boolean mResumableCopy = true;
+    private ProgressTracker.Listener mProgressListener;
+    private ListingListener mListingListener;
+    private int mCopyParallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private int mDeleteParallelism = Math.min(4, Runtime.getRuntime().availableProcessors());
     private Stack<String> mPathStack;
-    private ArrayList<String> mDirContent;
+    private DirectoryCache mDirCache;
+    private FileIndex mIndex;
+    private Executor mIndexExecutor;
+    private ZipArchive mArchive;
+    private File mTempDir;
+
+    /**
+     * Receives the entries of a directory in batches while it is being
+     * listed, so a huge folder can be shown before all of it has been read.
+     */
+    public interface ListingListener {
+        /**
+         * Called on the thread doing the listing before a directory that is
+         * not in the cache is read.
+         *
+         * @return	false to leave it unread, e.g. because the user already went
+         * 			elsewhere
+         */
+        boolean onStart();
+
+        /**
+         * Called on the thread doing the listing with the next entries read.
+         *
+         * @param batch	entries not handed out before, in listing order
+         * @return	false to stop listing, e.g. because the user went elsewhere
+         */
+        boolean onEntries(ArrayList<FileEntry> batch);
+    }
 
     /**
      * Constructs an object of the class
@@ -39,7 +78,7 @@ public class FileManager {
      * this class uses a stack to handle the navigation of directories.
      */
     public FileManager() {
-        mDirContent = new ArrayList<String>();
+        mDirCache = new DirectoryCache(32, 200000);
         mPathStack = new Stack<String>();
 
         mPathStack.push("/");
@@ -58,7 +97,7 @@ public class FileManager {
      * This will return a string of the current home path.
      * @return	the home directory
      */
-    public ArrayList<String> setHomeDir(String name) {
+    public ArrayList<FileEntry> setHomeDir(String name) {
         //This will eventually be placed as a settings item
         mPathStack.clear();
         mPathStack.push("/");
@@ -69,7 +108,8 @@ public class FileManager {
 
     /**
      * This will determine if hidden files and folders will be visible to the
-     * user.
+     * user. Listings kept in the cache were made with the old setting, so
+     * they are listed again the next time they are visited.
      * @param choice	true if user is veiwing hidden files, false otherwise
      */
     public void setShowHiddenFiles(boolean choice) {
@@ -77,15 +117,36 @@ public class FileManager {
     }
 
     /**
+     * Sets the order listings are returned in. Cached listings are sorted
+     * again from memory the next time they are visited.
      *
-     * @param type
+     * @param order		one of the FileSorter.SORT_ constants
+     * @param dirsFirst	true to show all folders before the files
      */
+    public void setSortOrder(int order, boolean dirsFirst) {
+        mSortOrder = order;
+        mDirsFirst = dirsFirst;
+    }
+
+    /**
+     * @return	the FileSorter.SORT_ constant listings are sorted by
+     */
+    public int getSortOrder() {
+        return mSortOrder;
+    }
+
+    /**
+     * @return	true if folders are listed before files
+     */
+    public boolean isDirsFirst() {
+        return mDirsFirst;
+    }
 
     /**
      * This will return a string that represents the path of the previous path
      * @return	returns the previous path
      */
-    public ArrayList<String> getPreviousDir() {
+    public ArrayList<FileEntry> getPreviousDir() {
         int size = mPathStack.size();
 
         if (size >= 2)
@@ -103,7 +164,7 @@ public class FileManager {
      * @param isFullPath
      * @return
      */
-    public ArrayList<String> getNextDir(String path, boolean isFullPath) {
+    public ArrayList<FileEntry> getNextDir(String path, boolean isFullPath) {
         int size = mPathStack.size();
 
         if(!path.equals(mPathStack.peek()) && !isFullPath) {
@@ -129,52 +190,297 @@ public class FileManager {
     public int copyToDirectory(String old, String newDir) {
         File old_file = new File(old);
         File temp_dir = new File(newDir);
-        byte[] data = new byte[BUFFER];
-        int read = 0;
 
         if(old_file.isFile() && temp_dir.isDirectory() && temp_dir.canWrite()){
             String file_name = old.substring(old.lastIndexOf("/"), old.length());
             File cp_file = new File(newDir + file_name);
 
-            try {
-                BufferedOutputStream o_stream = new BufferedOutputStream(
-                        new FileOutputStream(cp_file));
-                BufferedInputStream i_stream = new BufferedInputStream(
-                        new FileInputStream(old_file));
+            /* only a file too big to copy again cheaply is worth a journal */
+            if(mResumableCopy && (old_file.length() > TreeCopier.CHUNK ||
+                    CopyJournal.exists(old_file, temp_dir))) {
+                boolean ok = copyTree(old, newDir).isSuccessful();
 
-                while((read = i_stream.read(data, 0, BUFFER)) != -1)
-                    o_stream.write(data, 0, read);
+                mLastCopyStrategy = ok ? CopyEngine.STRATEGY_TRANSFER : CopyEngine.STRATEGY_FAILED;
+                return ok ? 0 : -1;
+            }
 
-                o_stream.flush();
-                i_stream.close();
-                o_stream.close();
+            ProgressTracker tracker = new ProgressTracker(mProgressListener);
+            tracker.setTotals(1, old_file.length());
+            tracker.setCurrentFile(old);
 
-            } catch (FileNotFoundException e) {
-                Log.e("FileNotFoundException", e.getMessage());
+            mLastCopyStrategy = CopyEngine.copy(old_file, cp_file, tracker);
+            changed(cp_file.getPath());
+            if(mLastCopyStrategy == CopyEngine.STRATEGY_FAILED)
                 return -1;
 
-            } catch (IOException e) {
-                Log.e("IOException", e.getMessage());
-                return -1;
-            }
+            tracker.fileDone();
+            tracker.finish();
 
         }else if(old_file.isDirectory() && temp_dir.isDirectory() && temp_dir.canWrite()) {
-            String files[] = old_file.list();
-            String dir = newDir + old.substring(old.lastIndexOf("/"), old.length());
-            int len = files.length;
-
-            if(!new File(dir).mkdir())
+            if(!copyTree(old, newDir).isSuccessful())
                 return -1;
 
-            for(int i = 0; i < len; i++)
-                copyToDirectory(old + "/" + files[i], dir);
-
         } else if(!temp_dir.canWrite())
             return -1;
 
         return 0;
     }
 
+    /**
+     * Copies a file or a whole directory tree into newDir. The directory
+     * skeleton is created first and the files are then copied in parallel,
+     * up to the limit set with setCopyParallelism.
+     *
+     * @param old		the file or folder to be copied
+     * @param newDir	the directory to copy into
+     * @return	the number of files and bytes copied and the paths that failed
+     */
+    public TreeCopier.Result copyTree(String old, String newDir) {
+        TreeCopier copier = new TreeCopier(mCopyParallelism);
+        ProgressTracker tracker = new ProgressTracker(mProgressListener);
+
+        copier.setResumable(mResumableCopy);
+        copier.setProgressTracker(tracker);
+
+        TreeCopier.Result result = copier.copy(new File(old), new File(newDir));
+        changed(new File(newDir, new File(old).getName()).getPath());
+        tracker.finish();
+
+        return result;
+    }
+
+    /**
+     * Sets who is told about the progress of copies and deletes. The
+     * listener is called on the thread doing the work.
+     *
+     * @param listener	the listener, or null for none
+     */
+    public void setProgressListener(ProgressTracker.Listener listener) {
+        mProgressListener = listener;
+    }
+
+    /**
+     * Sets the search index told about every file this class adds,
+     * removes or renames. Telling it about a folder walks everything under
+     * it, so this is done on executor rather than on the caller's thread,
+     * which may be the UI thread.
+     *
+     * @param index		the index, or null for none
+     * @param executor	runs the index updates in the order they are given
+     */
+    public void setFileIndex(FileIndex index, Executor executor) {
+        mIndex = index;
+        mIndexExecutor = executor;
+    }
+
+    /**
+     * Sets who is handed the entries of each directory listed by
+     * setHomeDir, getPreviousDir and getNextDir while it is being read.
+     * Listings answered from the cache are only returned, not streamed.
+     *
+     * @param listener	the listener, or null for none
+     */
+    public void setListingListener(ListingListener listener) {
+        mListingListener = listener;
+    }
+
+    /**
+     * When on, copies keep a journal next to the destination so an
+     * interrupted copy picks up where it stopped the next time the same
+     * file or folder is pasted into the same place. On by default.
+     *
+     * @param resumable	true to make copies resumable
+     */
+    public void setResumableCopy(boolean resumable) {
+        mResumableCopy = resumable;
+    }
+
+    /**
+     * Tells if a copy of old into newDir was interrupted and can be resumed.
+     *
+     * @param old		the file or folder that was being copied
+     * @param newDir	the directory it was being copied into
+     * @return	true if an unfinished journal exists
+     */
+    public boolean hasUnfinishedCopy(String old, String newDir) {
+        return CopyJournal.exists(new File(old), new File(newDir));
+    }
+
+    /**
+     * Sets how many files copyTree and copyToDirectory may copy at the
+     * same time when copying a folder.
+     *
+     * @param parallelism	the number of copy threads, at least 1
+     */
+    public void setCopyParallelism(int parallelism) {
+        mCopyParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Moves a file or folder into newDir. When both are on the same
+     * filesystem this is a single rename, which takes the same time no
+     * matter how big the folder is. Across filesystems the target is copied,
+     * the copy is checked to hold the same number of files and bytes, and
+     * only then is the original deleted. A copy that failed or does not match
+     * is deleted again, so nothing is left half moved.
+     *
+     * @param old		the file or folder to move
+     * @param newDir	the directory to move it into
+     * @return	0 on success, -1 if nothing was moved
+     */
+    public int moveToDirectory(String old, String newDir) {
+        File src = new File(old);
+        File dir = new File(newDir);
+        File dest = new File(dir, src.getName());
+
+        if(!src.exists() || !dir.isDirectory() || !dir.canWrite() || dest.exists())
+            return -1;
+
+        if(isSameVolume(src, dir)) {
+            ProgressTracker tracker = new ProgressTracker(mProgressListener);
+
+            tracker.setCurrentFile(old);
+            if(src.renameTo(dest)) {
+                changed(old);
+                changed(dest.getPath());
+                tracker.finish();
+                return 0;
+            }
+        }
+
+        long[] before = countTree(src);
+        if(!copyTree(old, newDir).isSuccessful()) {
+            Log.e("FileManager", "copy of " + old + " failed, original kept");
+            discardCopy(src, dir, dest);
+            return -1;
+        }
+
+        long[] after = countTree(dest);
+        if(before[0] != after[0] || before[1] != after[1]) {
+            Log.e("FileManager", "copy of " + old + " does not match, original kept");
+            discardCopy(src, dir, dest);
+            return -1;
+        }
+
+        return deleteTarget(old);
+    }
+
+    /* (non-Javadoc)
+     * Deletes what a move across filesystems copied before it gave up, and
+     * the journal of that copy. dest did not exist before the move started.
+     */
+    private void discardCopy(File src, File dir, File dest) {
+        if(dest.exists() && !deleteTree(dest.getPath()).isSuccessful())
+            Log.e("FileManager", "could not delete the partial copy " + dest.getPath());
+
+        CopyJournal.delete(src, dir);
+    }
+
+    /**
+     * Tells if two paths live on the same mounted filesystem, going by the
+     * longest mount point in /proc/mounts that holds each of them. If the
+     * mount table can not be read this answers true so the caller simply
+     * tries a rename and falls back when it fails.
+     *
+     * @param a	the first path
+     * @param b	the second path
+     * @return	true if a rename between them can work
+     */
+    public boolean isSameVolume(File a, File b) {
+        ArrayList<String> mounts = readMountPoints();
+
+        if(mounts.isEmpty())
+            return true;
+
+        try {
+            return mountPointOf(a.getCanonicalPath(), mounts).equals(
+                    mountPointOf(b.getCanonicalPath(), mounts));
+
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static String mountPointOf(String path, ArrayList<String> mounts) {
+        String best = "/";
+
+        for(String mount : mounts) {
+            if(mount.length() > best.length() &&
+                    (path.equals(mount) || path.startsWith(mount + "/")))
+                best = mount;
+        }
+
+        return best;
+    }
+
+    private static ArrayList<String> readMountPoints() {
+        ArrayList<String> mounts = new ArrayList<String>();
+        BufferedReader reader = null;
+        String line;
+
+        try {
+            reader = new BufferedReader(new FileReader("/proc/mounts"));
+
+            /* device mountpoint type options ... */
+            while((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ");
+
+                if(fields.length > 1)
+                    mounts.add(fields[1].replace("\\040", " "));
+            }
+
+        } catch (IOException e) {
+            mounts.clear();
+
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.e("IOException", e.getMessage());
+                }
+            }
+        }
+
+        return mounts;
+    }
+
+    /* (non-Javadoc)
+     * Returns {number of files, total bytes} under target, or for target
+     * itself if it is a file.
+     */
+    private static long[] countTree(File target) {
+        long[] count = {0, 0};
+        ArrayList<File> dirs = new ArrayList<File>();
+
+        dirs.add(target);
+        while(!dirs.isEmpty()) {
+            File file = dirs.remove(dirs.size() - 1);
+            File[] list = file.listFiles();
+
+            if(list == null) {
+                count[0]++;
+                count[1] += file.length();
+                continue;
+            }
+
+            for(File child : list)
+                dirs.add(child);
+        }
+
+        return count;
+    }
+
+    /**
+     * Tells which path CopyEngine took for the last file copied by
+     * copyToDirectory. A file copied in journaled chunks is reported as
+     * STRATEGY_TRANSFER, the path CopyEngine.copyRange takes first.
+     *
+     * @return	one of the CopyEngine STRATEGY constants
+     */
+    public int getLastCopyStrategy() {
+        return mLastCopyStrategy;
+    }
 
     /**
      *
@@ -202,8 +508,11 @@ public class FileManager {
         String temp = filePath.substring(0, filePath.lastIndexOf("/"));
 
         dest = new File(temp + "/" + newName + ext);
-        if(src.renameTo(dest))
+        if(src.renameTo(dest)) {
+            changed(filePath);
+            changed(dest.getPath());
             return 0;
+        }
         else
             return -1;
     }
@@ -222,36 +531,141 @@ public class FileManager {
      * @return
      */
     public int deleteTarget(String path) {
-        File target = new File(path);
+        return deleteTree(path).isSuccessful() ? 0 : -1;
+    }
 
-        if(target.exists() && target.isFile() && target.canWrite()) {
-            target.delete();
-            return 0;
+    /**
+     * Deletes a file or a folder and everything in it. Separate subfolders
+     * are deleted in parallel, up to the limit set with setDeleteParallelism.
+     *
+     * @param path	the full path of the file or folder to delete
+     * @return	the number of entries deleted and every path that could not be
+     */
+    public TreeDeleter.Result deleteTree(String path) {
+        TreeDeleter deleter = new TreeDeleter(mDeleteParallelism);
+        ProgressTracker tracker = new ProgressTracker(mProgressListener);
+
+        deleter.setProgressTracker(tracker);
+        TreeDeleter.Result result = deleter.delete(new File(path));
+        changed(path);
+        tracker.finish();
+
+        return result;
+    }
+
+    /**
+     * Deletes path as a copy of original, but only if both still hold the
+     * same bytes, since either may have changed after they were found to be
+     * duplicates.
+     *
+     * @param path		the full path of the copy to delete
+     * @param original	the full path of the copy that is kept
+     * @return	0 if path was deleted, -1 if it was kept
+     */
+    public int deleteDuplicate(String path, String original) {
+        if(!DuplicateFinder.sameContents(new File(original), new File(path))) {
+            Log.e("FileManager", path + " no longer matches " + original + ", kept");
+            return -1;
         }
 
-        else if(target.exists() && target.isDirectory() && target.canRead()) {
-            String[] file_list = target.list();
+        return deleteTarget(path);
+    }
 
-            if(file_list != null && file_list.length == 0) {
-                target.delete();
-                return 0;
+    /**
+     * Sets how many folders deleteTree and deleteTarget may empty at the
+     * same time.
+     *
+     * @param parallelism	the number of delete threads, at least 1
+     */
+    public void setDeleteParallelism(int parallelism) {
+        mDeleteParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets the folder createZipFile keeps its temp files in while zipping.
+     *
+     * @param dir	e.g. the app's cache folder, or null for the system's
+     * 				temp folder
+     */
+    public void setTempDir(File dir) {
+        mTempDir = dir;
+    }
 
-            } else if(file_list != null && file_list.length > 0) {
+    /**
+     * Zips a file, or a folder and everything in it, into a zip next to it
+     * named after it. Files are deflated in parallel, one thread per core.
+     *
+     * @param path	the full path of the file or folder to zip
+     * @return	0 if the zip was made, -1 if it exists already or failed
+     */
+    public int createZipFile(String path) {
+        File src = new File(path);
+        File zip = new File(src.getParent(), src.getName() + ".zip");
+        ZipEngine engine = new ZipEngine(Runtime.getRuntime().availableProcessors());
+        ProgressTracker tracker = new ProgressTracker(mProgressListener);
+
+        engine.setProgressTracker(tracker);
+        engine.setTempDir(mTempDir);
+        boolean ok = engine.zip(src, zip);
+        changed(zip.getPath());
+        tracker.finish();
+
+        return ok ? 0 : -1;
+    }
+
+    /**
+     * Extracts a zip into a folder, creating the folder if needed. Entries
+     * whose names lead outside the folder are skipped.
+     *
+     * @param zipFile	the full path of the zip
+     * @param directory	the full path of the folder to extract into
+     * @return	0 if every entry was extracted, -1 otherwise
+     */
+    public int extractZipFiles(String zipFile, String directory) {
+        ZipEngine engine = new ZipEngine(1);
+        ProgressTracker tracker = new ProgressTracker(mProgressListener);
 
-                for(int i = 0; i < file_list.length; i++) {
-                    File temp_f = new File(target.getAbsolutePath() + "/" + file_list[i]);
+        engine.setProgressTracker(tracker);
+        boolean ok = engine.unzip(new File(zipFile), new File(directory));
+        changed(directory);
+        tracker.finish();
 
-                    if(temp_f.isDirectory())
-                        deleteTarget(temp_f.getAbsolutePath());
-                    else if(temp_f.isFile())
-                        temp_f.delete();
-                }
-            }
-            if(target.exists())
-                if(target.delete())
-                    return 0;
+        return ok ? 0 : -1;
+    }
+
+    /**
+     * Tells if a path goes through a zip, as the paths of its entries do
+     * while it is browsed.
+     *
+     * @param path	a full path
+     * @return	true if part of path names a zip file
+     */
+    public boolean isInArchive(String path) {
+        return ZipArchive.split(path) != null;
+    }
+
+    /**
+     * Extracts one file out of the zip being browsed, for opening it.
+     *
+     * @param path	the full path of the entry, through the zip
+     * @param dir	the directory to extract it into
+     * @return	the extracted file, or null if it could not be extracted
+     */
+    public File extractEntry(String path, File dir) {
+        String[] zip = ZipArchive.split(path);
+
+        if(zip == null || (!dir.isDirectory() && !dir.mkdirs()))
+            return null;
+
+        File dest = new File(dir, new File(path).getName());
+        try {
+            if(archive(zip[0]).extract(zip[1], dest))
+                return dest;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
         }
-        return -1;
+        return null;
     }
 
     /**
@@ -274,40 +688,130 @@ public class FileManager {
      * to update the the list of files to be shown to the user, this is where
      * we do our sorting (by type, alphabetical, etc).
      *
+     * Each entry is a FileEntry holding everything the list shows, read once
+     * here so nothing has to touch the disk while the list is drawn. This is
+     * called on a background thread by EventHandler.
+     *
+     * Listings come out of mDirCache when the directory has not changed since
+     * it was last listed. The cache keeps them in the order they were read
+     * and the list returned is a sorted copy, so changing the sort order
+     * does not list anything again.
+     *
+     * Otherwise each entry is stat'ed as it is read and, with a listing
+     * listener set, handed out in batches in the order they were read. If
+     * the listener asks to stop, the part read so far is returned unsorted
+     * and is not cached; if it asks before anything is read, nothing is.
+     *
      * @return
      */
-    private ArrayList<String> populate_list() {
+    private ArrayList<FileEntry> populate_list() {
+        String[] zip = ZipArchive.split(mPathStack.peek());
 
-        if(!mDirContent.isEmpty())
-            mDirContent.clear();
+        if(zip != null)
+            return FileSorter.sort(listArchive(zip[0], zip[1]), mSortOrder, mDirsFirst);
 
         File file = new File(mPathStack.peek());
+        ArrayList<FileEntry> content = mDirCache.get(file, mShowHiddenFiles);
+
+        if(content != null)
+            return FileSorter.sort(content, mSortOrder, mDirsFirst);
+
+        ListingListener listener = mListingListener;
+
+        if(listener != null && !listener.onStart())
+            return new ArrayList<FileEntry>();
+
+        long modified = file.lastModified();
+        String[] list = file.canRead() ? file.list() : null;
+        content = new ArrayList<FileEntry>();
 
-        if(file.exists() && file.canRead()) {
-            String[] list = file.list();
+        if(list != null) {
             int len = list.length;
+            int sent = 0;
+            int batch = FIRST_BATCH;
+
+            content.ensureCapacity(len);
 			
 			/* add files/folder to arraylist depending on hidden status */
             for (int i = 0; i < len; i++) {
-                if(!mShowHiddenFiles) {
-                    if(list[i].toString().charAt(0) != '.')
-                        mDirContent.add(list[i]);
+                if(mShowHiddenFiles || list[i].charAt(0) != '.')
+                    content.add(FileEntry.fromFile(new File(file, list[i])));
+
+                /* the names are no longer needed once their entry is made */
+                list[i] = null;
+
+                if(listener != null && content.size() > sent &&
+                        (content.size() - sent >= batch || i == len - 1)) {
+                    if(!listener.onEntries(new ArrayList<FileEntry>(content.subList(sent, content.size()))))
+                        return content;
 
-                } else {
-                    mDirContent.add(list[i]);
+                    sent = content.size();
+                    batch = LIST_BATCH;
                 }
             }
 
+            mDirCache.put(file, modified, content, mShowHiddenFiles);
+        }
+
+        return FileSorter.sort(content, mSortOrder, mDirsFirst);
+    }
 
-        } else {
-            mDirContent.add("Emtpy");
+    /* (non-Javadoc)
+     * Called after this class added, removed or renamed path so the listing
+     * cache forgets the directories that show it and anything below it, the
+     * remembered folder sizes forget it and the search index learns whether
+     * path is there now.
+     */
+    private void changed(final String path) {
+        File parent = new File(path).getParentFile();
+        final FileIndex index = mIndex;
+
+        if(index != null) {
+            mIndexExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(new File(path).exists())
+                        index.added(path);
+                    else
+                        index.removed(path);
+                }
+            });
         }
 
-        return mDirContent;
+        mDirCache.invalidateTree(path);
+        DirectorySizer.invalidate(path);
+
+        /* the parent lists the file, the grandparent shows the parent's count */
+        if(parent != null) {
+            mDirCache.invalidate(parent.getPath());
+            if(parent.getParent() != null)
+                mDirCache.invalidate(parent.getParent());
+        }
     }
 
+    /* (non-Javadoc)
+     * Lists a folder inside a zip. Only the central directory of the zip is
+     * read, and it is kept while the same zip is browsed.
+     */
+    private ArrayList<FileEntry> listArchive(String zip, String inner) {
+        ArrayList<FileEntry> content = null;
+
+        try {
+            content = archive(zip).list(inner, mShowHiddenFiles);
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+        }
 
+        return content == null ? new ArrayList<FileEntry>() : content;
+    }
 
+    private ZipArchive archive(String zip) throws IOException {
+        ZipArchive archive = mArchive;
 
+        if(archive == null || !archive.getFile().getPath().equals(zip) || !archive.isCurrent())
+            mArchive = archive = ZipArchive.open(new File(zip));
 
-}
\ No newline at end of file
+        return archive;
+    }
+}
@@ -0,0 +1,275 @@
+package com.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Searches a directory tree for files and folders as it walks it, for when
+ * there is no FileIndex to ask. Subtrees are searched in parallel by a
+ * TreeWalker and every match is handed to a Listener as soon as it is
+ * found.
+ * <br>
+ * <br>
+ * The tests of a Query are made while each directory is listed, the name
+ * and extension first. Every entry is asked once if it is a directory, as
+ * the walk has to know where to go down, but size and modification time
+ * are only read for the entries whose name passed.
+ */
+public class FileSearcher {
+    private final int mParallelism;
+    private volatile TreeWalker mWalker;
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Told about each match, on the worker thread that found it.
+     */
+    public interface Listener {
+        /**
+         * @param file	a file or folder that matches the query
+         */
+        void onMatch(File file);
+    }
+
+    /**
+     * What a file or folder must be like to be found. Every test that was
+     * set must pass.
+     */
+    public static class Query {
+        private Pattern mName;
+        private String[] mExtensions;
+        private long mMinSize = -1, mMaxSize = -1;
+        private long mAfter = -1, mBefore = -1;
+        private boolean mHidden = false;
+
+        /**
+         * Matches names against a glob where * is any run of characters and
+         * ? is any one character, ignoring case. Without either the text
+         * only has to appear somewhere in the name.
+         *
+         * @param glob	the pattern
+         */
+        public void setName(String glob) {
+            StringBuilder regex = new StringBuilder();
+            boolean wild = glob.indexOf('*') >= 0 || glob.indexOf('?') >= 0;
+
+            if(!wild)
+                regex.append(".*");
+
+            int start = 0;
+            for(int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+
+                if(c != '*' && c != '?')
+                    continue;
+
+                if(i > start)
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+            if(start < glob.length())
+                regex.append(Pattern.quote(glob.substring(start)));
+
+            if(!wild)
+                regex.append(".*");
+
+            mName = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        }
+
+        /**
+         * Matches names against a regular expression, which must match the
+         * whole name.
+         *
+         * @param regex	the expression
+         */
+        public void setRegex(String regex) {
+            mName = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+        }
+
+        /**
+         * Only finds files ending in one of the extensions, without the dot.
+         * Folders are never found when this is set.
+         *
+         * @param extensions	the extensions, in any case
+         */
+        public void setExtensions(String... extensions) {
+            mExtensions = new String[extensions.length];
+
+            for(int i = 0; i < extensions.length; i++)
+                mExtensions[i] = extensions[i].toLowerCase(Locale.ENGLISH);
+        }
+
+        /**
+         * Only finds files with a size in bytes between min and max. Folders
+         * are never found when this is set.
+         *
+         * @param min	the smallest size, -1 for no limit
+         * @param max	the largest size, -1 for no limit
+         */
+        public void setSize(long min, long max) {
+            mMinSize = min;
+            mMaxSize = max;
+        }
+
+        /**
+         * Only finds entries last modified between after and before.
+         *
+         * @param after		the earliest time in milliseconds, -1 for no limit
+         * @param before	the latest time in milliseconds, -1 for no limit
+         */
+        public void setModified(long after, long before) {
+            mAfter = after;
+            mBefore = before;
+        }
+
+        /**
+         * @param hidden	true to look at, and inside, names starting with a dot
+         */
+        public void setIncludeHidden(boolean hidden) {
+            mHidden = hidden;
+        }
+
+        /* (non-Javadoc)
+         * The tests that need only the name.
+         */
+        boolean matchesName(String name, boolean isDir) {
+            if(mName != null && !mName.matcher(name).matches())
+                return false;
+
+            if(mExtensions != null) {
+                int dot = name.lastIndexOf('.');
+
+                if(isDir || dot < 0)
+                    return false;
+
+                String ext = name.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+                for(String e : mExtensions)
+                    if(e.equals(ext))
+                        return true;
+
+                return false;
+            }
+
+            return true;
+        }
+
+        /* (non-Javadoc)
+         * The tests that need a stat, only made once matchesName passed.
+         */
+        boolean matchesStat(File file, boolean isDir) {
+            if(mMinSize >= 0 || mMaxSize >= 0) {
+                if(isDir)
+                    return false;
+
+                long size = file.length();
+                if((mMinSize >= 0 && size < mMinSize) || (mMaxSize >= 0 && size > mMaxSize))
+                    return false;
+            }
+
+            if(mAfter >= 0 || mBefore >= 0) {
+                long time = file.lastModified();
+
+                if((mAfter >= 0 && time < mAfter) || (mBefore >= 0 && time > mBefore))
+                    return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * @param parallelism	the number of folders searched at the same time
+     */
+    public FileSearcher(int parallelism) {
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Stops the search. search() returns once the folders being listed are
+     * done and nothing more is handed to the listener.
+     */
+    public void cancel() {
+        mCancelled = true;
+
+        TreeWalker walker = mWalker;
+        if(walker != null)
+            walker.cancel();
+    }
+
+    /**
+     * @return	true if cancel() was called
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Searches everything under root, blocking until the whole tree was
+     * searched, maxResults were found or the search was cancelled.
+     *
+     * @param root			the folder to search in
+     * @param query			what to look for
+     * @param maxResults	the most matches handed out
+     * @param listener		told about each match
+     * @return	the number of matches handed out
+     */
+    public int search(File root, final Query query, final int maxResults, final Listener listener) {
+        final AtomicInteger found = new AtomicInteger();
+        final TreeWalker walker = new TreeWalker(mParallelism);
+
+        mWalker = walker;
+        if(mCancelled || maxResults <= 0)
+            return 0;
+
+        walker.walk(root, new TreeWalker.Visitor() {
+            @Override
+            public File[] enterDirectory(File dir) {
+                String[] list = dir.list();
+                ArrayList<File> subs = new ArrayList<File>();
+
+                if(list == null)
+                    return null;
+
+                for(String name : list) {
+                    if(walker.isCancelled())
+                        return null;
+
+                    if(!query.mHidden && name.charAt(0) == '.')
+                        continue;
+
+                    File child = new File(dir, name);
+                    boolean isDir = child.isDirectory();
+
+                    if(isDir && !TreeWalker.isLink(child))
+                        subs.add(child);
+
+                    if(!query.matchesName(name, isDir) || !query.matchesStat(child, isDir))
+                        continue;
+
+                    int n = found.incrementAndGet();
+                    if(n > maxResults) {
+                        walker.cancel();
+                        return null;
+                    }
+
+                    listener.onMatch(child);
+                    if(n == maxResults) {
+                        walker.cancel();
+                        return null;
+                    }
+                }
+
+                return subs.toArray(new File[subs.size()]);
+            }
+
+            @Override
+            public void exitDirectory(File dir) {
+            }
+        });
+
+        return Math.min(found.get(), maxResults);
+    }
+}
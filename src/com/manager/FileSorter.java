@@ -0,0 +1,176 @@
+package com.manager;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Orders directory listings. Like FileManager this class has no reference
+ * to any GUI activity.
+ * <br>
+ * <br>
+ * Names are compared through a key made once per FileEntry when it is
+ * read, so sorting never calls the Collator. Before the key is made every
+ * run of digits in the name is rewritten as its length followed by the
+ * digits, which makes "file2" come before "file10". Sorting only moves
+ * references around, so a cached listing can be put in any order without
+ * touching the disk.
+ */
+public final class FileSorter {
+    /*
+     * The orders a listing can be sorted in
+     */
+    public static final int SORT_NAME =		0x00;
+    public static final int SORT_SIZE =		0x01;
+    public static final int SORT_DATE =		0x02;
+    public static final int SORT_TYPE =		0x03;
+
+    /* Collator is not thread safe, each listing thread gets its own */
+    private static final ThreadLocal<Collator> COLLATOR = new ThreadLocal<Collator>() {
+        @Override
+        protected Collator initialValue() {
+            Collator c = Collator.getInstance();
+
+            c.setStrength(Collator.SECONDARY);
+            c.setDecomposition(Collator.NO_DECOMPOSITION);
+            return c;
+        }
+    };
+
+    private FileSorter() {
+    }
+
+    /**
+     * Returns a sorted copy of list. list itself is left as it is, so
+     * listings shared with DirectoryCache can be passed.
+     *
+     * @param list			the entries to sort
+     * @param order			one of the SORT_ constants
+     * @param dirsFirst		true to put every folder before every file
+     * @return	a new list holding the same entries
+     */
+    public static ArrayList<FileEntry> sort(ArrayList<FileEntry> list, int order, boolean dirsFirst) {
+        ArrayList<FileEntry> sorted = new ArrayList<FileEntry>(list);
+
+        Collections.sort(sorted, comparator(order, dirsFirst));
+        return sorted;
+    }
+
+    /**
+     * @param order			one of the SORT_ constants
+     * @param dirsFirst		true to put every folder before every file
+     * @return	a comparator for that order
+     */
+    public static Comparator<FileEntry> comparator(final int order, final boolean dirsFirst) {
+        return new Comparator<FileEntry>() {
+            @Override
+            public int compare(FileEntry a, FileEntry b) {
+                int c;
+
+                if(dirsFirst && a.isDirectory() != b.isDirectory())
+                    return a.isDirectory() ? -1 : 1;
+
+                switch(order) {
+                    case SORT_SIZE:
+                        /* largest first */
+                        c = compareLongs(b.getSize(), a.getSize());
+                        break;
+
+                    case SORT_DATE:
+                        /* newest first */
+                        c = compareLongs(b.getLastModified(), a.getLastModified());
+                        break;
+
+                    case SORT_TYPE:
+                        c = a.getExtension().compareTo(b.getExtension());
+                        break;
+
+                    default:
+                        c = 0;
+                        break;
+                }
+
+                if(c == 0)
+                    c = compareKeys(a.getNameKey(), b.getNameKey());
+                if(c == 0)
+                    c = a.getName().compareTo(b.getName());
+
+                return c;
+            }
+        };
+    }
+
+    /**
+     * Makes the key a name is sorted by. Called once per entry when the
+     * directory is listed.
+     *
+     * @param name	a file name
+     * @return	the collation key of the name with its numbers padded
+     */
+    public static byte[] nameKey(String name) {
+        return COLLATOR.get().getCollationKey(padNumbers(name)).toByteArray();
+    }
+
+    /* (non-Javadoc)
+     * Writes each run of digits as two digits giving its length without
+     * leading zeros, then the digits themselves, so that shorter numbers
+     * sort first and equal lengths sort digit by digit. Runs over 99 digits
+     * long are left alone.
+     */
+    private static String padNumbers(String name) {
+        int len = name.length();
+        int i = 0;
+        StringBuilder out = null;
+
+        while(i < len) {
+            char ch = name.charAt(i);
+
+            if(ch < '0' || ch > '9') {
+                if(out != null)
+                    out.append(ch);
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while(i < len && name.charAt(i) >= '0' && name.charAt(i) <= '9')
+                i++;
+
+            int first = start;
+            while(first < i - 1 && name.charAt(first) == '0')
+                first++;
+
+            int digits = i - first;
+            if(out == null)
+                out = new StringBuilder(len + 8).append(name, 0, start);
+
+            if(digits > 99) {
+                out.append(name, start, i);
+                continue;
+            }
+
+            out.append((char)('0' + digits / 10)).append((char)('0' + digits % 10));
+            out.append(name, first, i);
+        }
+
+        return out == null ? name : out.toString();
+    }
+
+    private static int compareKeys(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+
+        for(int i = 0; i < len; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+
+            if(c != 0)
+                return c;
+        }
+
+        return a.length - b.length;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
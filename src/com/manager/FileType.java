@@ -0,0 +1,143 @@
+package com.manager;
+
+/**
+ * What kind of file a name stands for, going by its extension: the icon the
+ * list shows for it, the MIME type it is opened with, whether a thumbnail
+ * can be made of it and how it is opened. This is the one place extensions
+ * are looked at, for the list rows, for opening files and for thumbnails.
+ * <br>
+ * <br>
+ * Extensions are found in a small open addressing table filled once. A
+ * lookup hashes and compares the extension in place, ignoring case, so
+ * classifying a name allocates nothing. FileEntry classifies each name once
+ * when it is listed.
+ */
+public final class FileType {
+    /* how a file is opened when it is tapped */
+    public static final int OPEN_DEFAULT = 		0x00;
+    public static final int OPEN_IMAGE = 		0x01;
+    public static final int OPEN_AUDIO = 		0x02;
+    public static final int OPEN_VIDEO = 		0x03;
+    public static final int OPEN_TEXT = 		0x04;
+    public static final int OPEN_ARCHIVE = 		0x05;	//browsed like a folder
+
+    /* a power of two, a few times the number of extensions */
+    private static final int TABLE_SIZE = 		256;
+    private static final int MAX_EXTENSION = 	8;
+
+    private static final String[] mKeys = new String[TABLE_SIZE];
+    private static final FileType[] mTypes = new FileType[TABLE_SIZE];
+
+    /** any folder */
+    public static final FileType FOLDER = new FileType(R.drawable.folder, "resource/folder", false, OPEN_DEFAULT);
+    /** any file whose extension is not known, opened as plain text */
+    public static final FileType UNKNOWN = new FileType(R.drawable.text, "text/plain", false, OPEN_DEFAULT);
+
+    static {
+        add(new FileType(R.drawable.image, "image/*", true, OPEN_IMAGE),
+                "png", "jpg", "jpeg", "gif", "bmp", "webp");
+        /* shown and opened as images, but BitmapFactory cannot decode them */
+        add(new FileType(R.drawable.image, "image/tiff", false, OPEN_IMAGE), "tif", "tiff");
+
+        add(new FileType(R.drawable.music, "audio/*", false, OPEN_AUDIO),
+                "mp3", "wma", "m4a", "m4p", "ogg", "wav", "aac", "flac", "mid", "amr");
+        add(new FileType(R.drawable.movies, "video/*", false, OPEN_VIDEO),
+                "mp4", "m4v", "3gp", "wmv", "avi", "mkv", "webm");
+
+        add(new FileType(R.drawable.zip, "application/zip", false, OPEN_ARCHIVE), "zip");
+        add(new FileType(R.drawable.zip, "application/x-gzip", false, OPEN_DEFAULT), "gz", "gzip", "tgz");
+        add(new FileType(R.drawable.jar32, "application/java-archive", false, OPEN_DEFAULT), "jar");
+        add(new FileType(R.drawable.appicon, "application/vnd.android.package-archive", false, OPEN_DEFAULT), "apk");
+
+        add(new FileType(R.drawable.pdf, "application/pdf", false, OPEN_DEFAULT), "pdf");
+        add(new FileType(R.drawable.word, "application/msword", false, OPEN_DEFAULT), "doc", "docx");
+        add(new FileType(R.drawable.excel, "application/vnd.ms-excel", false, OPEN_DEFAULT), "xls", "xlsx");
+        add(new FileType(R.drawable.ppt, "application/vnd.ms-powerpoint", false, OPEN_DEFAULT), "ppt", "pptx");
+
+        add(new FileType(R.drawable.html32, "text/html", false, OPEN_TEXT), "html", "htm");
+        add(new FileType(R.drawable.xml32, "text/xml", false, OPEN_TEXT), "xml");
+        add(new FileType(R.drawable.config32, "text/plain", false, OPEN_TEXT), "conf", "cfg", "ini", "prop");
+        add(new FileType(R.drawable.text, "text/plain", false, OPEN_TEXT), "txt", "log", "csv", "java", "c", "h");
+    }
+
+    private final int mIcon;
+    private final String mMimeType;
+    private final boolean mThumbnail;
+    private final int mOpen;
+
+    private FileType(int icon, String mimeType, boolean thumbnail, int open) {
+        mIcon = icon;
+        mMimeType = mimeType;
+        mThumbnail = thumbnail;
+        mOpen = open;
+    }
+
+    /**
+     * Classifies a file by the extension of its name. Names without one,
+     * and names whose only dot is the first character, are UNKNOWN.
+     *
+     * @param name	the name, or full path, of a file
+     * @return	its type, never null
+     */
+    public static FileType forName(String name) {
+        int dot = name.lastIndexOf('.');
+        int start = dot + 1;
+        int length = name.length() - start;
+
+        if(dot < 1 || name.charAt(dot - 1) == '/' || length == 0 || length > MAX_EXTENSION)
+            return UNKNOWN;
+
+        int slot = hash(name, start, length) & (TABLE_SIZE - 1);
+        String key;
+
+        while((key = mKeys[slot]) != null) {
+            if(key.length() == length && name.regionMatches(true, start, key, 0, length))
+                return mTypes[slot];
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+
+        return UNKNOWN;
+    }
+
+    /** @return	the drawable the list shows for this type */
+    public int getIcon() { return mIcon; }
+
+    /** @return	the MIME type files of this type are opened with */
+    public String getMimeType() { return mMimeType; }
+
+    /** @return	true if BitmapFactory can make a thumbnail of these files */
+    public boolean isThumbnailable() { return mThumbnail; }
+
+    /** @return	one of the OPEN_ constants */
+    public int getOpenKind() { return mOpen; }
+
+    private static void add(FileType type, String... extensions) {
+        for(String ext : extensions) {
+            int slot = hash(ext, 0, ext.length()) & (TABLE_SIZE - 1);
+
+            while(mKeys[slot] != null)
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+
+            mKeys[slot] = ext;
+            mTypes[slot] = type;
+        }
+    }
+
+    /* (non-Javadoc)
+     * Hashes length chars of s from start, folding ASCII upper case to lower
+     * case so both hash the same. Extensions in the table are all ASCII.
+     */
+    private static int hash(String s, int start, int length) {
+        int h = 0;
+
+        for(int i = start; i < start + length; i++) {
+            char c = s.charAt(i);
+
+            if(c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            h = 31 * h + c;
+        }
+
+        return h ^ (h >>> 7);
+    }
+}
@@ -21,6 +21,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
+import android.widget.AbsListView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.TextView;
 import android.widget.EditText;
@@ -39,6 +40,8 @@ public final class Main extends ListActivity {
     private static final String PREFS_COLOR = "color";
     private static final String PREFS_THUMBNAIL = "thumbnail";
     private static final String PREFS_STORAGE = "sdcard space";
+    private static final String PREFS_SORT = "sort";
+    private static final String PREFS_DIRS_FIRST = "folders first";
 
 
     private static final int D_MENU_DELETE = 0x05;			//context menu id
@@ -46,11 +49,19 @@ public final class Main extends ListActivity {
     private static final int D_MENU_COPY =   0x07;			//context menu id
     private static final int D_MENU_PASTE =  0x08;			//context menu id
     private static final int D_MENU_MOVE = 	 0x30;			//context menu id
+    private static final int D_MENU_INFO =   0x09;			//context menu id
+    private static final int D_MENU_ZIP =    0x0e;			//context menu id
     private static final int F_MENU_MOVE = 	 0x20;			//context menu id
     private static final int F_MENU_DELETE = 0x0a;			//context menu id
     private static final int F_MENU_RENAME = 0x0b;			//context menu id
     private static final int F_MENU_COPY =   0x0d;			//context menu id
+    private static final int F_MENU_ZIP =    0x0f;			//context menu id
+    private static final int F_MENU_UNZIP =  0x11;			//context menu id
     private static final int SETTING_REQ = 	 0x10;			//request code for intent
+    private static final int INFO_REQ = 	 0x12;			//request code for intent
+    private static final int MENU_SORT =	 0x40;			//options menu id
+    private static final int MENU_SEARCH =	 0x41;			//options menu id
+    private static final int MENU_DUPLICATES = 0x42;		//options menu id
 
     private FileManager mFileMag;
     private EventHandler mHandler;
@@ -61,7 +72,7 @@ public final class Main extends ListActivity {
     private boolean mHoldingFile = false;
     private boolean mUseBackKey = true;
     private String mCopiedTarget;
-    private String mSelectedListItem;				//item from context menu
+    private String mSelectedPath;					//full path of the item from context menu
     private TextView  mPathLabel, mDetailLabel, mStorageLabel;
 
     @Override
@@ -76,9 +87,12 @@ public final class Main extends ListActivity {
         boolean thumb = mSettings.getBoolean(PREFS_THUMBNAIL, true);
         int space = mSettings.getInt(PREFS_STORAGE, View.VISIBLE);
         int color = mSettings.getInt(PREFS_COLOR, -1);
+        int sort = mSettings.getInt(PREFS_SORT, FileSorter.SORT_NAME);
+        boolean dirs_first = mSettings.getBoolean(PREFS_DIRS_FIRST, true);
 
         mFileMag = new FileManager();
         mFileMag.setShowHiddenFiles(hide);
+        mFileMag.setSortOrder(sort, dirs_first);
 
         if (savedInstanceState != null)
             mHandler = new EventHandler(Main.this, mFileMag, savedInstanceState.getString("location"));
@@ -94,10 +108,23 @@ public final class Main extends ListActivity {
          */
         mHandler.setListAdapter(mTable);
         setListAdapter(mTable);
+        mHandler.setListView(getListView());
         
         /* register context menu for our list view */
         registerForContextMenu(getListView());
 
+        /* thumbnails of the rows on screen are made first */
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScroll(AbsListView view, int first, int count, int total) {
+                mHandler.setVisibleRange(first, count);
+            }
+
+            @Override
+            public void onScrollStateChanged(AbsListView view, int state) {
+            }
+        });
+
         mStorageLabel = (TextView)findViewById(R.id.storage_label);
         mDetailLabel = (TextView)findViewById(R.id.detail_label);
         mPathLabel = (TextView)findViewById(R.id.path_label);
@@ -108,9 +135,11 @@ public final class Main extends ListActivity {
 
         mHandler.setUpdateLabels(mPathLabel, mDetailLabel);
         
+        mHandler.setMultiSelectBar(findViewById(R.id.hidden_buttons));
+        
         /* setup buttons */
         int[] img_button_id = {R.id.help_button, R.id.home_button,
-                R.id.back_button};
+                R.id.back_button, R.id.multiselect_button};
 
         int[] button_id = {R.id.hidden_copy, R.id.hidden_attach,
                 R.id.hidden_delete, R.id.hidden_move};
@@ -121,15 +150,22 @@ public final class Main extends ListActivity {
         for(int i = 0; i < img_button_id.length; i++) {
             bimg[i] = (ImageButton)findViewById(img_button_id[i]);
             bimg[i].setOnClickListener(mHandler);
+        }
 
-            if(i < 4) {
-                bt[i] = (Button)findViewById(button_id[i]);
-                bt[i].setOnClickListener(mHandler);
-            }
+        for(int i = 0; i < button_id.length; i++) {
+            bt[i] = (Button)findViewById(button_id[i]);
+            bt[i].setOnClickListener(mHandler);
         }
 
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mHandler.shutdownThumbnails();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -151,6 +187,11 @@ public final class Main extends ListActivity {
         finish();
     }
 
+    /* the name of the item the context menu was opened on */
+    private String selectedName() {
+        return new File(mSelectedPath).getName();
+    }
+
     private void updateStorageLabel() {
         long total, aval;
         int kb = 1024;
@@ -167,206 +208,80 @@ public final class Main extends ListActivity {
     }
 
     /**
-     *  To add more functionality and let the user interact with more
-     *  file types, this is the function to add the ability.
-     *
-     *  (note): this method can be done more efficiently
+     * Hands the system's memory warnings on to the thumbnail cache and
+     * the bitmap pool.
      */
     @Override
-    public void onListItemClick(ListView parent, View view, int position, long id) {
-        final String item = mHandler.getData(position);
-        File file = new File(mFileMag.getCurrentDir() + "/" + item);
-        String item_ext = null;
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
 
-        try {
-            item_ext = item.substring(item.lastIndexOf("."), item.length());
+        ThumbnailCache.getInstance().trimMemory(level);
+        BitmapPool.getInstance().trimMemory(level);
+    }
 
-        } catch(IndexOutOfBoundsException e) {
-            item_ext = "";
-        }
-    	
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
 
+        ThumbnailCache.getInstance().trimMemory(TRIM_MEMORY_COMPLETE);
+        BitmapPool.getInstance().trimMemory(TRIM_MEMORY_COMPLETE);
+    }
 
-            if (file.isDirectory()) {
-                if(file.canRead()) {
-                    mHandler.stopThumbnailThread();
-                    mHandler.updateDirectory(mFileMag.getNextDir(item, false));
-                    mPathLabel.setText(mFileMag.getCurrentDir());
-		    		
+    /**
+     *  Folders and zips are opened in the list, every other file is handed
+     *  to an app for its MIME type. To let the user interact with more file
+     *  types, add their extensions to FileType.
+     */
+    @Override
+    public void onListItemClick(ListView parent, View view, int position, long id) {
+        final FileEntry entry = mHandler.getEntry(position);
+        final FileType type = entry.getType();
+        File file = new File(entry.getPath());
 
-                    if(!mUseBackKey)
-                        mUseBackKey = true;
+        if(mHandler.isMultiSelected()) {
+            mHandler.addMultiPosition(position);
+            return;
+        }
 
-                } else {
-                    Toast.makeText(this, "Can't read folder due to permissions",
-                            Toast.LENGTH_SHORT).show();
-                }
-            }
-	    	
-	    	/*music file selected--add more audio formats*/
-            else if (item_ext.equalsIgnoreCase(".mp3") ||
-                    item_ext.equalsIgnoreCase(".m4a")||
-                    item_ext.equalsIgnoreCase(".mp4")) {
-
-                if(mReturnIntent) {
-                    returnIntentResults(file);
-                } else {
-                    Intent i = new Intent();
-                    i.setAction(android.content.Intent.ACTION_VIEW);
-                    i.setDataAndType(Uri.fromFile(file), "audio/*");
-                    startActivity(i);
-                }
-            }
-	    	
-	    	/*photo file selected*/
-            else if(item_ext.equalsIgnoreCase(".jpeg") ||
-                    item_ext.equalsIgnoreCase(".jpg")  ||
-                    item_ext.equalsIgnoreCase(".png")  ||
-                    item_ext.equalsIgnoreCase(".gif")  ||
-                    item_ext.equalsIgnoreCase(".tiff")) {
-
-                if (file.exists()) {
-                    if(mReturnIntent) {
-                        returnIntentResults(file);
-
-                    } else {
-                        Intent picIntent = new Intent();
-                        picIntent.setAction(android.content.Intent.ACTION_VIEW);
-                        picIntent.setDataAndType(Uri.fromFile(file), "image/*");
-                        startActivity(picIntent);
-                    }
-                }
-            }
-	    	
-	    	/*video file selected--add more video formats*/
-            else if(item_ext.equalsIgnoreCase(".m4v") ||
-                    item_ext.equalsIgnoreCase(".3gp") ||
-                    item_ext.equalsIgnoreCase(".wmv") ||
-                    item_ext.equalsIgnoreCase(".mp4") ||
-                    item_ext.equalsIgnoreCase(".ogg") ||
-                    item_ext.equalsIgnoreCase(".wav")) {
-
-                if (file.exists()) {
-                    if(mReturnIntent) {
-                        returnIntentResults(file);
-
-                    } else {
-                        Intent movieIntent = new Intent();
-                        movieIntent.setAction(android.content.Intent.ACTION_VIEW);
-                        movieIntent.setDataAndType(Uri.fromFile(file), "video/*");
-                        startActivity(movieIntent);
-                    }
-                }
-            }
-	    	
+        /* files inside a zip have to be taken out of it before anything can open them */
+        if(!entry.isDirectory() && entry.isInArchive()) {
+            mHandler.openArchiveEntry(entry.getPath());
+            return;
+        }
 
+        /* a zip is browsed like a folder */
+        if(entry.isDirectory() || type.getOpenKind() == FileType.OPEN_ARCHIVE) {
+            if(entry.canRead()) {
+                mHandler.stopThumbnailThread();
+                mHandler.openDirectory(entry.getPath(), true);
 
-	    	
-	    	/*pdf file selected*/
-            else if(item_ext.equalsIgnoreCase(".pdf")) {
+                if(!mUseBackKey)
+                    mUseBackKey = true;
 
-                if(file.exists()) {
-                    if(mReturnIntent) {
-                        returnIntentResults(file);
+            } else {
+                Toast.makeText(this, "Can't read folder due to permissions",
+                        Toast.LENGTH_SHORT).show();
+            }
 
-                    } else {
-                        Intent pdfIntent = new Intent();
-                        pdfIntent.setAction(android.content.Intent.ACTION_VIEW);
-                        pdfIntent.setDataAndType(Uri.fromFile(file),
-                                "application/pdf");
+        } else if(file.exists()) {
+            if(mReturnIntent) {
+                returnIntentResults(file);
 
-                        try {
-                            startActivity(pdfIntent);
-                        } catch (ActivityNotFoundException e) {
-                            Toast.makeText(this, "Sorry, couldn't find a pdf viewer",
-                                    Toast.LENGTH_SHORT).show();
-                        }
-                    }
-                }
-            }
-	    	
-	    	/*Android application file*/
-            else if(item_ext.equalsIgnoreCase(".apk")){
-
-                if(file.exists()) {
-                    if(mReturnIntent) {
-                        returnIntentResults(file);
-
-                    } else {
-                        Intent apkIntent = new Intent();
-                        apkIntent.setAction(android.content.Intent.ACTION_VIEW);
-                        apkIntent.setDataAndType(Uri.fromFile(file), "application/vnd.android.package-archive");
-                        startActivity(apkIntent);
-                    }
-                }
-            }
-	    	
-	    	/* HTML file */
-            else if(item_ext.equalsIgnoreCase(".html")) {
-
-                if(file.exists()) {
-                    if(mReturnIntent) {
-                        returnIntentResults(file);
-
-                    } else {
-                        Intent htmlIntent = new Intent();
-                        htmlIntent.setAction(android.content.Intent.ACTION_VIEW);
-                        htmlIntent.setDataAndType(Uri.fromFile(file), "text/html");
-
-                        try {
-                            startActivity(htmlIntent);
-                        } catch(ActivityNotFoundException e) {
-                            Toast.makeText(this, "Sorry, couldn't find a HTML viewer",
-                                    Toast.LENGTH_SHORT).show();
-                        }
-                    }
-                }
-            }
-	    	
-	    	/* text file*/
-            else if(item_ext.equalsIgnoreCase(".txt")) {
-
-                if(file.exists()) {
-                    if(mReturnIntent) {
-                        returnIntentResults(file);
-
-                    } else {
-                        Intent txtIntent = new Intent();
-                        txtIntent.setAction(android.content.Intent.ACTION_VIEW);
-                        txtIntent.setDataAndType(Uri.fromFile(file), "text/plain");
-
-                        try {
-                            startActivity(txtIntent);
-                        } catch(ActivityNotFoundException e) {
-                            txtIntent.setType("text/*");
-                            startActivity(txtIntent);
-                        }
-                    }
-                }
-            }
-	    	
-	    	/* generic intent */
-            else {
-                if(file.exists()) {
-                    if(mReturnIntent) {
-                        returnIntentResults(file);
-
-                    } else {
-                        Intent generic = new Intent();
-                        generic.setAction(android.content.Intent.ACTION_VIEW);
-                        generic.setDataAndType(Uri.fromFile(file), "text/plain");
-
-                        try {
-                            startActivity(generic);
-                        } catch(ActivityNotFoundException e) {
-                            Toast.makeText(this, "Sorry, couldn't find anything " +
-                                            "to open " + file.getName(),
-                                    Toast.LENGTH_SHORT).show();
-                        }
-                    }
+            } else {
+                Intent intent = new Intent();
+                intent.setAction(android.content.Intent.ACTION_VIEW);
+                intent.setDataAndType(Uri.fromFile(file), type.getMimeType());
+
+                try {
+                    startActivity(intent);
+                } catch(ActivityNotFoundException e) {
+                    Toast.makeText(this, "Sorry, couldn't find anything " +
+                                    "to open " + file.getName(),
+                            Toast.LENGTH_SHORT).show();
                 }
             }
         }
+    }
 
 
     @Override
@@ -398,36 +313,80 @@ public final class Main extends ListActivity {
             mHandler.setTextColor(color);
             mHandler.setShowThumbnails(thumbnail);
             mStorageLabel.setVisibility(space);
-            mHandler.updateDirectory(mFileMag.getNextDir(mFileMag.getCurrentDir(), true));
+            mHandler.refreshDirectory();
+
+        /* the folder info screen asked for its folder to be zipped */
+        } else if(requestCode == INFO_REQ && resultCode == RESULT_OK && data != null) {
+            mHandler.zipFile(data.getStringExtra(DirectoryInfo.ZIP_PATH));
         }
     }
 
     /* =================================*/
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(0, MENU_SEARCH, 0, "Search").setIcon(R.drawable.search);
+        menu.add(0, MENU_SORT, 0, "Sort");
+        menu.add(0, MENU_DUPLICATES, 0, "Find duplicates");
+
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+
+        switch(item.getItemId()) {
+            case MENU_SORT:
+            case MENU_SEARCH:
+                showDialog(item.getItemId());
+                return true;
+
+            case MENU_DUPLICATES:
+                mHandler.findDuplicates();
+                return true;
+        }
+        return false;
+    }
+
 
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo info) {
         super.onCreateContextMenu(menu, v, info);
 
         AdapterContextMenuInfo _info = (AdapterContextMenuInfo)info;
-        mSelectedListItem = mHandler.getData(_info.position);
+        FileEntry entry = mHandler.getEntry(_info.position);
+
+        /* the row's own path, the list may already be moving to another folder */
+        mSelectedPath = entry.getPath();
+
+        /* nothing inside a zip can be changed in place */
+        if(entry.isInArchive())
+            return;
 
     	/* is it a directory  */
-        if(mFileMag.isDirectory(mSelectedListItem) ) {
+        if(entry.isDirectory()) {
             menu.setHeaderTitle("Folder operations");
             menu.add(0, D_MENU_DELETE, 0, "Delete Folder");
             menu.add(0, D_MENU_RENAME, 0, "Rename Folder");
             menu.add(0, D_MENU_COPY, 0, "Copy Folder");
             menu.add(0, D_MENU_MOVE, 0, "Move Folder");
-            menu.add(0, D_MENU_PASTE, 0, "Paste into folder").setEnabled(mHoldingFile);
+            menu.add(0, D_MENU_PASTE, 0, "Paste into folder").setEnabled(mHoldingFile ||
+                    mHandler.isHoldingFiles());
+            menu.add(0, D_MENU_ZIP, 0, "Zip Folder");
+            menu.add(0, D_MENU_INFO, 0, "Folder info");
 
         /* is it a file  */
-        } else if(!mFileMag.isDirectory(mSelectedListItem) ) {
+        } else {
             menu.setHeaderTitle("File Operations");
             menu.add(0, F_MENU_DELETE, 0, "Delete File");
             menu.add(0, F_MENU_RENAME, 0, "Rename File");
             menu.add(0, F_MENU_COPY, 0, "Copy File");
             menu.add(0, F_MENU_MOVE, 0, "Move File");
+
+            if(entry.getType().getOpenKind() == FileType.OPEN_ARCHIVE)
+                menu.add(0, F_MENU_UNZIP, 0, "Extract here");
+            else
+                menu.add(0, F_MENU_ZIP, 0, "Zip File");
         }
     }
 
@@ -440,7 +399,7 @@ public final class Main extends ListActivity {
                 AlertDialog.Builder builder = new AlertDialog.Builder(this);
                 builder.setTitle("Warning ");
                 builder.setIcon(R.drawable.warning);
-                builder.setMessage("Deleting " + mSelectedListItem +
+                builder.setMessage("Deleting " + selectedName() +
                         " cannot be undone. Are you sure you want to delete?");
                 builder.setCancelable(false);
 
@@ -451,7 +410,7 @@ public final class Main extends ListActivity {
                 });
                 builder.setPositiveButton("Delete", new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int which) {
-                        mHandler.deleteFile(mFileMag.getCurrentDir() + "/" + mSelectedListItem);
+                        mHandler.deleteFile(mSelectedPath);
                     }
                 });
                 AlertDialog alert_d = builder.create();
@@ -462,10 +421,26 @@ public final class Main extends ListActivity {
                 showDialog(D_MENU_RENAME);
                 return true;
 
+            case D_MENU_INFO:
+                Intent info = new Intent(this, DirectoryInfo.class);
+                info.putExtra(DirectoryInfo.PATH_NAME, mSelectedPath);
+                startActivityForResult(info, INFO_REQ);
+                return true;
+
             case F_MENU_RENAME:
                 showDialog(F_MENU_RENAME);
                 return true;
 
+            case D_MENU_ZIP:
+            case F_MENU_ZIP:
+                mHandler.zipFile(mSelectedPath);
+                return true;
+
+            case F_MENU_UNZIP:
+                String name = mSelectedPath.substring(0, mSelectedPath.length() - 4);
+                mHandler.unzipFile(mSelectedPath, name);
+                return true;
+
 
             case F_MENU_MOVE:
             case D_MENU_MOVE:
@@ -476,15 +451,18 @@ public final class Main extends ListActivity {
 
                 mHoldingFile = true;
 
-                mCopiedTarget = mFileMag.getCurrentDir() +"/"+ mSelectedListItem;
-                mDetailLabel.setText("Holding " + mSelectedListItem);
+                mCopiedTarget = mSelectedPath;
+                mDetailLabel.setText("Holding " + selectedName());
                 return true;
 
 
             case D_MENU_PASTE:
-                if(mHoldingFile && mCopiedTarget.length() > 1) {
+                if(mHandler.isHoldingFiles()) {
+                    mHandler.pasteHeldFiles(mSelectedPath);
+
+                } else if(mHoldingFile && mCopiedTarget.length() > 1) {
 
-                    mHandler.copyFile(mCopiedTarget, mFileMag.getCurrentDir() +"/"+ mSelectedListItem);
+                    mHandler.copyFile(mCopiedTarget, mSelectedPath);
                     mDetailLabel.setText("");
                 }
 
@@ -504,17 +482,75 @@ public final class Main extends ListActivity {
 
         switch(id) {
 
+            case MENU_SORT:
+                final CharSequence[] orders = {"Name", "Size", "Date", "Type",
+                        "Folders first", "Folders mixed with files"};
+
+                AlertDialog.Builder sort = new AlertDialog.Builder(Main.this);
+                sort.setTitle("Sort by");
+                sort.setItems(orders, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface d, int which) {
+                        int order = mFileMag.getSortOrder();
+                        boolean dirs_first = mFileMag.isDirsFirst();
+
+                        /* the first four entries line up with FileSorter.SORT_ */
+                        if(which < 4)
+                            order = which;
+                        else
+                            dirs_first = which == 4;
+
+                        SharedPreferences.Editor editor = mSettings.edit();
+                        editor.putInt(PREFS_SORT, order);
+                        editor.putBoolean(PREFS_DIRS_FIRST, dirs_first);
+                        editor.commit();
+
+                        mFileMag.setSortOrder(order, dirs_first);
+                        mHandler.refreshDirectory();
+                    }
+                });
+                return sort.create();
+
+            case MENU_SEARCH:
+                dialog.setContentView(R.layout.input_layout);
+                dialog.setTitle("Search");
+                dialog.setCancelable(false);
+
+                ImageView search_icon = (ImageView)dialog.findViewById(R.id.input_icon);
+                search_icon.setImageResource(R.drawable.search);
+
+                TextView search_label = (TextView)dialog.findViewById(R.id.input_label);
+                search_label.setText("File or folder name");
+                final EditText search_input = (EditText)dialog.findViewById(R.id.input_inputText);
+
+                Button search_cancel = (Button)dialog.findViewById(R.id.input_cancel_b);
+                Button search_go = (Button)dialog.findViewById(R.id.input_create_b);
+                search_go.setText("Search");
+
+                search_go.setOnClickListener(new OnClickListener() {
+                    public void onClick (View v) {
+                        String query = search_input.getText().toString().trim();
+
+                        dialog.dismiss();
+                        if(query.length() > 0)
+                            mHandler.searchFiles(query);
+                    }
+                });
+                search_cancel.setOnClickListener(new OnClickListener() {
+                    public void onClick (View v) {	dialog.dismiss(); }
+                });
+                break;
+
             case D_MENU_RENAME:
             case F_MENU_RENAME:
                 dialog.setContentView(R.layout.input_layout);
-                dialog.setTitle("Rename " + mSelectedListItem);
+                dialog.setTitle("Rename " + selectedName());
                 dialog.setCancelable(false);
 
                 ImageView rename_icon = (ImageView)dialog.findViewById(R.id.input_icon);
                 rename_icon.setImageResource(R.drawable.rename);
 
                 TextView rename_label = (TextView)dialog.findViewById(R.id.input_label);
-                rename_label.setText(mFileMag.getCurrentDir());
+                rename_label.setText(new File(mSelectedPath).getParent());
                 final EditText rename_input = (EditText)dialog.findViewById(R.id.input_inputText);
 
                 Button rename_cancel = (Button)dialog.findViewById(R.id.input_cancel_b);
@@ -526,15 +562,14 @@ public final class Main extends ListActivity {
                         if(rename_input.getText().length() < 1)
                             dialog.dismiss();
 
-                        if(mFileMag.renameTarget(mFileMag.getCurrentDir() +"/"+ mSelectedListItem, rename_input.getText().toString()) == 0) {
-                            Toast.makeText(Main.this, mSelectedListItem + " was renamed to " +rename_input.getText().toString(),
+                        if(mFileMag.renameTarget(mSelectedPath, rename_input.getText().toString()) == 0) {
+                            Toast.makeText(Main.this, selectedName() + " was renamed to " +rename_input.getText().toString(),
                                     Toast.LENGTH_LONG).show();
                         }else
-                            Toast.makeText(Main.this, mSelectedListItem + " was not renamed", Toast.LENGTH_LONG).show();
+                            Toast.makeText(Main.this, selectedName() + " was not renamed", Toast.LENGTH_LONG).show();
 
                         dialog.dismiss();
-                        String temp = mFileMag.getCurrentDir();
-                        mHandler.updateDirectory(mFileMag.getNextDir(temp, true));
+                        mHandler.refreshDirectory();
                     }
                 });
                 rename_cancel.setOnClickListener(new OnClickListener() {
@@ -560,8 +595,7 @@ public final class Main extends ListActivity {
 
                 //stop updating thumbnail icons if its running
                 mHandler.stopThumbnailThread();
-                mHandler.updateDirectory(mFileMag.getPreviousDir());
-                mPathLabel.setText(mFileMag.getCurrentDir());
+                mHandler.openPreviousDirectory();
 
             return true;
 
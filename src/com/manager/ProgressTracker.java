@@ -0,0 +1,191 @@
+package com.manager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps count of how far a copy or delete has got and hands snapshots of it
+ * to a Listener. Like FileManager this class has no reference to any GUI
+ * activity. It is safe to update from several worker threads at once.
+ * <br>
+ * <br>
+ * Snapshots are handed out at most once every INTERVAL milliseconds, plus
+ * once more when finish() is called, so the listener can post each one to
+ * the UI thread without flooding it.
+ */
+public class ProgressTracker {
+    private static final long INTERVAL = 	250;
+    /* weight of the newest sample in the smoothed throughput */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Receives progress snapshots. This is called on whatever thread did the
+     * work, never on the UI thread.
+     */
+    public interface Listener {
+        void onProgress(Progress progress);
+    }
+
+    /**
+     * An immutable snapshot of an operation's progress. Totals are -1 when
+     * they are not known.
+     */
+    public static class Progress {
+        public final long bytesDone;
+        public final long totalBytes;
+        public final int filesDone;
+        public final int totalFiles;
+        public final String currentFile;
+        /* bytes per second since the previous snapshot */
+        public final double rate;
+        /* bytes per second, exponentially smoothed */
+        public final double smoothedRate;
+        /* milliseconds left at the smoothed rate, -1 if unknown */
+        public final long eta;
+        public final boolean finished;
+
+        Progress(long bytesDone, long totalBytes, int filesDone, int totalFiles,
+                 String currentFile, double rate, double smoothedRate, long eta, boolean finished) {
+            this.bytesDone = bytesDone;
+            this.totalBytes = totalBytes;
+            this.filesDone = filesDone;
+            this.totalFiles = totalFiles;
+            this.currentFile = currentFile;
+            this.rate = rate;
+            this.smoothedRate = smoothedRate;
+            this.eta = eta;
+            this.finished = finished;
+        }
+
+        /**
+         * @return	the fraction done between 0 and 1, or -1 if the total is unknown
+         */
+        public double getFraction() {
+            if(totalBytes > 0)
+                return Math.min(1.0, (double)bytesDone / totalBytes);
+            if(totalFiles > 0)
+                return Math.min(1.0, (double)filesDone / totalFiles);
+
+            return -1;
+        }
+    }
+
+    private final Listener mListener;
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicInteger mFiles = new AtomicInteger();
+    private volatile long mTotalBytes = -1;
+    private volatile int mTotalFiles = -1;
+    private volatile String mCurrent = "";
+
+    /* written only while holding this */
+    private volatile long mLastTime;
+    private long mLastBytes;
+    private double mSmoothed = 0;
+
+    /**
+     * @param listener	receives the snapshots, may be null to only count
+     */
+    public ProgressTracker(Listener listener) {
+        mListener = listener;
+        mLastTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Sets the totals once they are known.
+     */
+    public void setTotals(int files, long bytes) {
+        mTotalFiles = files;
+        mTotalBytes = bytes;
+        publish(true, false);
+    }
+
+    /**
+     * Sets the file currently being worked on.
+     */
+    public void setCurrentFile(String path) {
+        mCurrent = path;
+    }
+
+    /**
+     * Adds bytes that were copied or deleted.
+     */
+    public void addBytes(long bytes) {
+        mBytes.addAndGet(bytes);
+        publish(false, false);
+    }
+
+    /**
+     * Adds bytes that did not have to be worked on, such as the part of a
+     * file an earlier copy already wrote. They count towards the bytes done
+     * but not towards the throughput.
+     */
+    public void skipBytes(long bytes) {
+        synchronized(this) {
+            mBytes.addAndGet(bytes);
+            mLastBytes += bytes;
+        }
+        publish(false, false);
+    }
+
+    /**
+     * Counts one more file as done.
+     */
+    public void fileDone() {
+        mFiles.incrementAndGet();
+        publish(false, false);
+    }
+
+    /**
+     * Hands out the final snapshot.
+     */
+    public void finish() {
+        publish(true, true);
+    }
+
+    /** @return	the bytes done so far */
+    public long getBytesDone() {
+        return mBytes.get();
+    }
+
+    /** @return	the files done so far */
+    public int getFilesDone() {
+        return mFiles.get();
+    }
+
+    private void publish(boolean force, boolean finished) {
+        Progress progress;
+
+        if(mListener == null)
+            return;
+
+        /* cheap check first so busy workers do not queue up on the lock */
+        if(!force && System.currentTimeMillis() - mLastTime < INTERVAL)
+            return;
+
+        synchronized(this) {
+            long now = System.currentTimeMillis();
+            long elapsed = now - mLastTime;
+
+            if(!force && elapsed < INTERVAL)
+                return;
+
+            long bytes = mBytes.get();
+            double rate = elapsed > 0 ? (bytes - mLastBytes) * 1000.0 / elapsed : 0;
+
+            if(elapsed > 0)
+                mSmoothed = mSmoothed == 0 ? rate : SMOOTHING * rate + (1 - SMOOTHING) * mSmoothed;
+
+            mLastTime = now;
+            mLastBytes = bytes;
+
+            long total = mTotalBytes;
+            long eta = (total >= 0 && mSmoothed > 0) ?
+                    (long)((total - bytes) * 1000.0 / mSmoothed) : -1;
+
+            progress = new Progress(bytes, total, mFiles.get(), mTotalFiles, mCurrent,
+                    rate, mSmoothed, eta, finished);
+        }
+
+        mListener.onProgress(progress);
+    }
+}
@@ -0,0 +1,110 @@
+package com.manager;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+/**
+ * Keeps the thumbnails made by ThumbnailCreator in memory, keyed by the full
+ * path of the image. The cache is bounded by the bytes of the bitmaps it
+ * holds, an eighth of the heap, and drops the least recently used ones
+ * first. There is one cache for the whole app, so thumbnails outlive the
+ * list they were made for.
+ * <br>
+ * <br>
+ * Main passes on the system's memory warnings through trimMemory(), which
+ * shrinks or empties the cache depending on how badly memory is needed.
+ * <br>
+ * <br>
+ * Thumbnails pushed out are not given to BitmapPool. A row that is not
+ * bound again keeps drawing its thumbnail after it became the least
+ * recently used one, so it may well still be on screen.
+ */
+public class ThumbnailCache {
+    private static ThumbnailCache mInstance = null;
+
+    private final LruCache<String, Bitmap> mBitmaps;
+
+    private ThumbnailCache(int maxBytes) {
+        mBitmaps = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String path, Bitmap bitmap) {
+                /* a pooled bitmap may be reconfigured into a bigger allocation */
+                if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                    return bitmap.getAllocationByteCount();
+
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * @return	the cache shared by the whole app
+     */
+    public static synchronized ThumbnailCache getInstance() {
+        if(mInstance == null)
+            mInstance = new ThumbnailCache((int)Math.min(Runtime.getRuntime().maxMemory() / 8,
+                    Integer.MAX_VALUE));
+
+        return mInstance;
+    }
+
+    /**
+     * @param path	the full path of an image
+     * @return	its thumbnail, or null if there is none in memory
+     */
+    public Bitmap get(String path) {
+        return mBitmaps.get(path);
+    }
+
+    /**
+     * Adds a thumbnail, pushing out the least recently used ones if the
+     * cache would grow past its size.
+     *
+     * @param path		the full path of the image
+     * @param bitmap	its thumbnail, nothing is cached for null
+     */
+    public void put(String path, Bitmap bitmap) {
+        if(bitmap != null)
+            mBitmaps.put(path, bitmap);
+    }
+
+    /**
+     * Forgets the thumbnail of path, e.g. because the image changed.
+     */
+    public void remove(String path) {
+        mBitmaps.remove(path);
+    }
+
+    /**
+     * Gives memory back when the system asks for it. When the app is likely
+     * to be killed soon, or memory is critically short while it runs, the
+     * cache is emptied. From low memory on it is cut to half its size.
+     *
+     * @param level	the level passed to ComponentCallbacks2.onTrimMemory
+     */
+    public void trimMemory(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            mBitmaps.evictAll();
+
+        else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            mBitmaps.trimToSize(mBitmaps.maxSize() / 2);
+    }
+
+    /** @return	the bytes held now */
+    public int getSize() { return mBitmaps.size(); }
+
+    /** @return	the most bytes held */
+    public int getMaxSize() { return mBitmaps.maxSize(); }
+
+    /** @return	how many times get() found a thumbnail */
+    public int getHitCount() { return mBitmaps.hitCount(); }
+
+    /** @return	how many times get() found nothing */
+    public int getMissCount() { return mBitmaps.missCount(); }
+
+    /** @return	how many thumbnails were pushed out to make room */
+    public int getEvictionCount() { return mBitmaps.evictionCount(); }
+}
@@ -2,106 +2,357 @@ package com.manager;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Message;
+import android.os.Process;
 
-import java.lang.ref.SoftReference;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.ArrayList;
+import java.util.PriorityQueue;
 import java.io.File;
 
-public class ThumbnailCreator extends Thread {	
-	private int mWidth;
-	private int mHeight;
-	private SoftReference<Bitmap> mThumb;
-	private static HashMap<String, Bitmap> mCacheMap = null;
-	private ArrayList<String> mFiles;
-	private String mDir;
-	private Handler mHandler;
-	private boolean mStop = false;
-
-	public ThumbnailCreator(int width, int height) {
+/**
+ * Makes thumbnails of images on a small pool of background threads. One
+ * object serves the list for as long as it is shown; rows ask for the
+ * thumbnail they need with request() and the Handler gets a message, with
+ * the path in obj, for each one made.
+ * <br>
+ * <br>
+ * Waiting requests are ordered by how far their row is from the rows on
+ * screen, so what the user looks at is decoded first, and setVisibleRange()
+ * orders them again as the list scrolls. A path is only ever waiting or
+ * being decoded once.
+ * <br>
+ * <br>
+ * cancelAll() starts a new generation. Jobs of an older one are not started,
+ * decodes of theirs still running are told to stop, and a thumbnail they
+ * still make is cached but not announced. The generation a thumbnail was
+ * asked for in goes with its message in arg1, so a message already on its
+ * way can be told apart with getGeneration().
+ */
+public class ThumbnailCreator {
+	private final int mWidth;
+	private final int mHeight;
+	private final int mThreads;
+	private final Handler mHandler;
+	private final ThumbnailCache mCache = ThumbnailCache.getInstance();
+	private final ThumbnailDiskCache mDisk = ThumbnailDiskCache.getInstance();
+	private final BitmapPool mPool = BitmapPool.getInstance();
+
+	/* all guarded by this */
+	private final HashMap<String, Job> mPending = new HashMap<String, Job>();
+	private final HashMap<String, BitmapFactory.Options> mRunning =
+			new HashMap<String, BitmapFactory.Options>();
+	private PriorityQueue<Job> mQueue;
+	private int mFirstVisible = 0;
+	private int mLastVisible = 0;
+	private int mStarted = 0;
+	private boolean mShutdown = false;
+	private volatile int mGeneration = 0;
+
+	/*
+	 * An image waiting to be decoded, the row it is shown in and the
+	 * generation it was asked for in.
+	 */
+	private static final class Job {
+		final FileEntry entry;
+		final int generation;
+		int position;
+
+		Job(FileEntry entry, int position, int generation) {
+			this.entry = entry;
+			this.position = position;
+			this.generation = generation;
+		}
+	}
+
+	/* nearest to the rows on screen first, then top to bottom */
+	private final Comparator<Job> mOrder = new Comparator<Job>() {
+		@Override
+		public int compare(Job a, Job b) {
+			int d = distance(a.position) - distance(b.position);
+
+			return d != 0 ? d : a.position - b.position;
+		}
+	};
+
+	/**
+	 * @param width		the width of the thumbnails
+	 * @param height	the height of the thumbnails
+	 * @param threads	the most images decoded at the same time
+	 * @param handler	sent a message, with the path in obj and the
+	 * 					generation in arg1, for every thumbnail put in
+	 * 					ThumbnailCache
+	 */
+	public ThumbnailCreator(int width, int height, int threads, Handler handler) {
 		mHeight = height;
 		mWidth = width;
-		
-		if(mCacheMap == null)
-			mCacheMap = new HashMap<String, Bitmap>();
+		mThreads = Math.max(1, threads);
+		mHandler = handler;
+		mQueue = new PriorityQueue<Job>(64, mOrder);
 	}
-	
-	public Bitmap isBitmapCached(String name) {
-		return mCacheMap.get(name);
+
+	/**
+	 * Asks for the thumbnail of the image shown in row position. If it is
+	 * waiting already it only takes the new position, and if it is being
+	 * made nothing happens.
+	 *
+	 * @param entry		the image
+	 * @param position	the row it is shown in
+	 */
+	public synchronized void request(FileEntry entry, int position) {
+		String path = entry.getPath();
+
+		if (mShutdown || mRunning.containsKey(path))
+			return;
+
+		Job job = mPending.get(path);
+
+		if (job != null) {
+			if (job.position != position) {
+				mQueue.remove(job);
+				job.position = position;
+				mQueue.add(job);
+			}
+			return;
+		}
+
+		job = new Job(entry, position, mGeneration);
+		mPending.put(path, job);
+		mQueue.add(job);
+
+		if (mStarted < mThreads && mStarted < mPending.size() + mRunning.size())
+			startWorker();
+		notify();
 	}
 
-	public void setCancelThumbnails(boolean stop) {
-		mStop = stop;
+	/**
+	 * Tells which rows are on screen so their images are decoded first.
+	 *
+	 * @param first	the first row shown
+	 * @param last	the last row shown
+	 */
+	public synchronized void setVisibleRange(int first, int last) {
+		if (first == mFirstVisible && last == mLastVisible)
+			return;
+
+		mFirstVisible = first;
+		mLastVisible = last;
+
+		/* every distance changed, so the heap is built again */
+		PriorityQueue<Job> queue = new PriorityQueue<Job>(Math.max(1, mQueue.size()), mOrder);
+		queue.addAll(mQueue);
+		mQueue = queue;
 	}
-	
-	public void createNewThumbnail(ArrayList<String> files,  String dir,  Handler handler) {
-		this.mFiles = files;
-		this.mDir = dir;
-		this.mHandler = handler;		
+
+	/**
+	 * Starts a new generation, e.g. when another directory is shown: the
+	 * requests not started yet are dropped and the decodes running are
+	 * asked to stop.
+	 */
+	public synchronized void cancelAll() {
+		mGeneration++;
+
+		for (BitmapFactory.Options options : mRunning.values())
+			options.requestCancelDecode();
+
+		mRunning.clear();
+		mPending.clear();
+		mQueue.clear();
 	}
-	
-	@Override
-	public void run() {
-		int len = mFiles.size();
-		
-		for (int i = 0; i < len; i++) {	
-			if (mStop) {
-				mStop = false;
-				mFiles = null;
-				return;
+
+	/**
+	 * @return	the generation messages are sent for now; one whose arg1
+	 * 			differs was asked for before the last cancelAll()
+	 */
+	public int getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Drops all requests and lets the threads end. Nothing can be asked
+	 * for afterwards.
+	 */
+	public synchronized void shutdown() {
+		mShutdown = true;
+		cancelAll();
+		notifyAll();
+	}
+
+	private int distance(int position) {
+		if (position < mFirstVisible)
+			return mFirstVisible - position;
+		if (position > mLastVisible)
+			return position - mLastVisible;
+		return 0;
+	}
+
+	private void startWorker() {
+		mStarted++;
+
+		Thread worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				work();
 			}
-			final File file = new File(mDir + "/" + mFiles.get(i));
-			
-			if (isImageFile(file.getName())) {
-				long len_kb = file.length() / 1024;
-				
-				BitmapFactory.Options options = new BitmapFactory.Options();
-				options.outWidth = mWidth;
-				options.outHeight = mHeight;
-					
-				if (len_kb > 1000 && len_kb < 5000) {
-					options.inSampleSize = 32;
-					options.inPurgeable = true;
-					mThumb = new SoftReference<Bitmap>(BitmapFactory.decodeFile(file.getPath(), options));
-										
-				} else if (len_kb >= 5000) {
-					options.inSampleSize = 32;
-					options.inPurgeable = true;
-					mThumb = new SoftReference<Bitmap>(BitmapFactory.decodeFile(file.getPath(), options));
-									
-				} else if (len_kb <= 1000) {
-					options.inPurgeable = true;
-					mThumb = new SoftReference<Bitmap>(Bitmap.createScaledBitmap(
-							 						   BitmapFactory.decodeFile(file.getPath()),
-							 						   mWidth,
-							 						   mHeight,
-							 						   false));
-				}
-								
-				mCacheMap.put(file.getPath(), mThumb.get());
-				
-				mHandler.post(new Runnable() {
-					@Override
-					public void run() {
-						Message msg = mHandler.obtainMessage();
-						msg.obj = (Bitmap)mThumb.get();
-						msg.sendToTarget();
+		}, "thumbnail-" + mStarted);
+
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/* (non-Javadoc)
+	 * The loop of each thread: take the most urgent job of the current
+	 * generation and make its thumbnail. The disk cache index is written
+	 * each time all of the work is done.
+	 */
+	private void work() {
+		while (true) {
+			Job job;
+			BitmapFactory.Options options = new BitmapFactory.Options();
+
+			synchronized (this) {
+				while (mQueue.isEmpty() && !mShutdown) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
 					}
-				});
+				}
+
+				if (mShutdown)
+					break;
+
+				job = mQueue.poll();
+				mPending.remove(job.entry.getPath());
+
+				if (job.generation != mGeneration)
+					continue;
+
+				mRunning.put(job.entry.getPath(), options);
 			}
+
+			boolean idle;
+
+			try {
+				make(job, options);
+			} finally {
+				synchronized (this) {
+					/* cancelAll() may have let another job take the path */
+					if (mRunning.get(job.entry.getPath()) == options)
+						mRunning.remove(job.entry.getPath());
+					idle = mQueue.isEmpty() && mRunning.isEmpty();
+				}
+			}
+
+			if (idle && mDisk != null)
+				mDisk.flush();
+		}
+
+		if (mDisk != null)
+			mDisk.flush();
+	}
+
+	private void make(Job job, BitmapFactory.Options options) {
+		FileEntry entry = job.entry;
+		String path = entry.getPath();
+
+		if (mCache.get(path) != null)
+			return;
+
+		Bitmap thumb = mDisk == null ? null :
+				mDisk.get(path, entry.getSize(), entry.getLastModified());
+
+		if (thumb == null) {
+			thumb = decode(new File(path), options);
+
+			/* a file BitmapFactory cannot read, or a cancelled decode, keeps its icon */
+			if (thumb == null)
+				return;
+
+			if (mDisk != null)
+				mDisk.put(path, entry.getSize(), entry.getLastModified(), thumb);
 		}
+
+		mCache.put(path, thumb);
+
+		/* made for a directory no longer shown, nobody is waiting for it */
+		if (job.generation != mGeneration)
+			return;
+
+		Message msg = mHandler.obtainMessage();
+		msg.obj = path;
+		msg.arg1 = job.generation;
+		msg.sendToTarget();
+	}
+
+	/*
+	 * Decodes the image at thumbnail size, or returns null if BitmapFactory
+	 * cannot read it or options was cancelled. Only the header is read
+	 * first, to pick how much the image is reduced while it is decoded, so
+	 * the pixels decoded are a few times the thumbnail's however big the
+	 * image is. The image is decoded, and then drawn, into bitmaps from
+	 * BitmapPool when it has some, and goes back to the pool once drawn.
+	 */
+	private Bitmap decode(File file, BitmapFactory.Options options) {
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(file.getPath(), options);
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+			return null;
+
+		options.inSampleSize = sampleSize(options.outWidth, options.outHeight, mWidth, mHeight);
+		options.inJustDecodeBounds = false;
+
+		Bitmap full = mPool.decodeFile(file.getPath(), options);
+		if (full == null)
+			return null;
+
+		if (full.getWidth() == mWidth && full.getHeight() == mHeight)
+			return full;
+
+		Bitmap thumb = mPool.get(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+
+		if (thumb == null)
+			thumb = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+		else
+			thumb.eraseColor(Color.TRANSPARENT);
+
+		/* no Paint, so no filtering, the same as createScaledBitmap(..., false) */
+		new Canvas(thumb).drawBitmap(full, null, new Rect(0, 0, mWidth, mHeight), null);
+		/* so an opaque photo is still stored as JPEG by ThumbnailDiskCache */
+		thumb.setHasAlpha(full.hasAlpha());
+		mPool.put(full);
+
+		return thumb;
 	}
-	
-	private boolean isImageFile(String file) {
-		String ext = file.substring(file.lastIndexOf(".") + 1);
-		
-		if (ext.equalsIgnoreCase("png") || ext.equalsIgnoreCase("jpg") ||
-			ext.equalsIgnoreCase("jpeg")|| ext.equalsIgnoreCase("gif") ||
-			ext.equalsIgnoreCase("tiff")|| ext.equalsIgnoreCase("tif"))
-			return true;
-		
-		return false;
+
+	/**
+	 * Finds the largest power of two an image can be reduced by when it is
+	 * decoded and still be at least width by height. Images far wider or
+	 * taller than the thumbnail are reduced further, until they have at
+	 * most 16 times its pixels.
+	 *
+	 * @param imageWidth	the width of the image
+	 * @param imageHeight	the height of the image
+	 * @param width			the width wanted
+	 * @param height		the height wanted
+	 * @return	a value for BitmapFactory.Options.inSampleSize, at least 1
+	 */
+	static int sampleSize(int imageWidth, int imageHeight, int width, int height) {
+		int sample = 1;
+
+		long most = 16L * width * height;
+
+		while (imageWidth / (sample * 2) >= width && imageHeight / (sample * 2) >= height)
+			sample *= 2;
+
+		while ((long)Math.max(1, imageWidth / sample) * Math.max(1, imageHeight / sample) > most)
+			sample *= 2;
+
+		return sample;
 	}
-}
\ No newline at end of file
+}
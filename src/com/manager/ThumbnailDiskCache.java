@@ -0,0 +1,544 @@
+package com.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Keeps encoded thumbnails on disk, so images decoded once are not decoded
+ * again after the app restarts or ThumbnailCache lets them go. An entry is
+ * keyed by the path of the image together with its size and modification
+ * time; once the image changes the old thumbnail is simply not found.
+ * <br>
+ * <br>
+ * All thumbnails go into one pack file, appended to and never changed in
+ * place, and a small index file says where each one is. The index is read
+ * into memory when the cache is first used and written back by flush();
+ * records appended after the last flush are found again by reading the
+ * tail of the pack. A lookup copies the thumbnail out of the memory-mapped
+ * pack in one read. Once the pack grows past MAX_BYTES, or half of that is
+ * taken by replaced thumbnails, it is compacted on a background thread,
+ * keeping the most recently used thumbnails.
+ * <br>
+ * <br>
+ * File layouts, all numbers big endian:
+ * <pre>
+ * pack:   int magic, version; long generation
+ *         then records of
+ *         int record; short path length; byte path[]; long size, modified;
+ *         int data length; byte data[]	JPEG, or PNG for images with alpha
+ * index:  int magic, version; long generation, pack end, dead bytes; int count
+ *         then for each entry
+ *         short path length; byte path[]; long size, modified, record offset;
+ *         int data length
+ * </pre>
+ */
+public class ThumbnailDiskCache {
+    private static final int MAGIC =			0x544d4250;
+    private static final int INDEX_MAGIC =		0x544d4249;
+    private static final int RECORD =			0x544d4252;
+    private static final int VERSION =			1;
+    private static final int PACK_HEADER =		4 + 4 + 8;
+    private static final int RECORD_HEADER =	4 + 2 + 8 + 8 + 4;
+
+    /* the pack is compacted past MAX_BYTES, down to KEEP_BYTES */
+    private static final long MAX_BYTES =		16 * 1024 * 1024;
+    private static final long KEEP_BYTES =		MAX_BYTES * 3 / 4;
+    private static final int JPEG_QUALITY =		85;
+
+    private static final String PACK_FILE = "thumbs.pack";
+    private static final String INDEX_FILE = "thumbs.idx";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor();
+
+    private static ThumbnailDiskCache mInstance = null;
+
+    private final File mPack;
+    private final File mIndex;
+
+    /* in access order, so compaction keeps the most recently used */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+    private RandomAccessFile mFile;
+    private MappedByteBuffer mMap;
+    private long mGeneration;
+    private long mEnd;
+    private long mDead;
+    private boolean mOpened = false;
+    private boolean mDirty = false;
+    private boolean mCompacting = false;
+
+    /*
+     * Where one thumbnail is in the pack and what image it was made of.
+     */
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final long offset;
+        final int pathLength;
+        final int length;
+
+        Entry(long size, long modified, long offset, int pathLength, int length) {
+            this.size = size;
+            this.modified = modified;
+            this.offset = offset;
+            this.pathLength = pathLength;
+            this.length = length;
+        }
+
+        long dataOffset() {
+            return offset + RECORD_HEADER + pathLength;
+        }
+
+        long recordLength() {
+            return RECORD_HEADER + pathLength + length;
+        }
+    }
+
+    private ThumbnailDiskCache(File dir) {
+        mPack = new File(dir, PACK_FILE);
+        mIndex = new File(dir, INDEX_FILE);
+    }
+
+    /**
+     * Sets the directory the cache keeps its files in. Nothing is read
+     * until the cache is first used.
+     *
+     * @param dir	the app's cache directory
+     */
+    public static synchronized void setDirectory(File dir) {
+        if(mInstance == null)
+            mInstance = new ThumbnailDiskCache(dir);
+    }
+
+    /**
+     * @return	the cache, or null if setDirectory was not called
+     */
+    public static synchronized ThumbnailDiskCache getInstance() {
+        return mInstance;
+    }
+
+    /**
+     * Looks up the thumbnail of an image as it is now.
+     *
+     * @param path		the full path of the image
+     * @param size		its size in bytes
+     * @param modified	its modification time
+     * @return	the thumbnail, or null if there is none for this version of the image
+     */
+    public Bitmap get(String path, long size, long modified) {
+        byte[] data;
+
+        synchronized(this) {
+            if(!open())
+                return null;
+
+            Entry e = mEntries.get(path);
+            if(e == null)
+                return null;
+
+            if(e.size != size || e.modified != modified) {
+                forget(path, e);
+                return null;
+            }
+
+            try {
+                if(mMap == null || e.dataOffset() + e.length > mMap.capacity())
+                    mMap = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mEnd);
+
+                ByteBuffer view = mMap.duplicate();
+                data = new byte[e.length];
+                view.position((int)e.dataOffset());
+                view.get(data);
+
+            } catch (IOException ex) {
+                Log.e("IOException", ex.getMessage());
+                return null;
+            }
+        }
+
+        Bitmap bitmap = BitmapPool.getInstance().decodeByteArray(data, 0, data.length);
+        if(bitmap == null) {
+            synchronized(this) {
+                Entry e = mEntries.get(path);
+                if(e != null)
+                    forget(path, e);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Stores the thumbnail of an image, replacing any older one.
+     *
+     * @param path		the full path of the image
+     * @param size		its size in bytes
+     * @param modified	its modification time
+     * @param thumb		the thumbnail
+     */
+    public void put(String path, long size, long modified, Bitmap thumb) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(4096);
+
+        if(!thumb.compress(thumb.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                JPEG_QUALITY, encoded))
+            return;
+
+        byte[] name = path.getBytes(UTF8);
+        byte[] data = encoded.toByteArray();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + name.length + data.length);
+
+        record.putInt(RECORD).putShort((short)name.length).put(name)
+              .putLong(size).putLong(modified).putInt(data.length).put(data);
+
+        synchronized(this) {
+            if(!open() || name.length > Short.MAX_VALUE)
+                return;
+
+            try {
+                mFile.seek(mEnd);
+                mFile.write(record.array());
+
+            } catch (IOException e) {
+                Log.e("IOException", e.getMessage());
+                return;
+            }
+
+            Entry old = mEntries.put(path, new Entry(size, modified, mEnd, name.length, data.length));
+            if(old != null)
+                mDead += old.recordLength();
+
+            mEnd += record.capacity();
+            mDirty = true;
+
+            if((mEnd > MAX_BYTES || mDead > MAX_BYTES / 2) && !mCompacting) {
+                mCompacting = true;
+                COMPACTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        compact();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Writes the index if anything was added or dropped since it was last
+     * written. ThumbnailCreator calls this whenever it runs out of work.
+     */
+    public synchronized void flush() {
+        if(!mOpened || !mDirty)
+            return;
+
+        File tmp = new File(mIndex.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+
+            try {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(mGeneration);
+                out.writeLong(mEnd);
+                out.writeLong(mDead);
+                out.writeInt(mEntries.size());
+
+                for(Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                    Entry e = item.getValue();
+                    byte[] name = item.getKey().getBytes(UTF8);
+
+                    out.writeShort(name.length);
+                    out.write(name);
+                    out.writeLong(e.size);
+                    out.writeLong(e.modified);
+                    out.writeLong(e.offset);
+                    out.writeInt(e.length);
+                }
+            } finally {
+                out.close();
+            }
+
+            if(tmp.renameTo(mIndex))
+                mDirty = false;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            tmp.delete();
+        }
+    }
+
+    /* (non-Javadoc)
+     * Opens the pack and reads the index the first time the cache is used.
+     * A missing or damaged pack is started over.
+     */
+    private boolean open() {
+        if(mOpened)
+            return mFile != null;
+
+        mOpened = true;
+        try {
+            mFile = new RandomAccessFile(mPack, "rw");
+
+            if(mFile.length() < PACK_HEADER || mFile.readInt() != MAGIC || mFile.readInt() != VERSION) {
+                reset();
+                return true;
+            }
+
+            mGeneration = mFile.readLong();
+            long length = mFile.length();
+
+            /* whatever the index does not cover is read from the pack itself */
+            mEnd = readIndex(length) ? mEnd : PACK_HEADER;
+            scan(length);
+            return true;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            mFile = null;
+            return false;
+        }
+    }
+
+    private void reset() throws IOException {
+        mEntries.clear();
+        mGeneration = System.currentTimeMillis();
+        mEnd = PACK_HEADER;
+        mDead = 0;
+        mMap = null;
+
+        mFile.setLength(0);
+        mFile.writeInt(MAGIC);
+        mFile.writeInt(VERSION);
+        mFile.writeLong(mGeneration);
+        mIndex.delete();
+    }
+
+    /* (non-Javadoc)
+     * Reads the index file if it belongs to this pack. Sets mEnd to the end
+     * of the records it covers.
+     */
+    private boolean readIndex(long packLength) {
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndex)));
+
+            if(in.readInt() != INDEX_MAGIC || in.readInt() != VERSION || in.readLong() != mGeneration)
+                return false;
+
+            long end = in.readLong();
+            long dead = in.readLong();
+            int count = in.readInt();
+
+            if(end > packLength)
+                return false;
+
+            byte[] name = new byte[256];
+            for(int i = 0; i < count; i++) {
+                int len = in.readShort();
+
+                if(name.length < len)
+                    name = new byte[len];
+                in.readFully(name, 0, len);
+
+                mEntries.put(new String(name, 0, len, UTF8),
+                        new Entry(in.readLong(), in.readLong(), in.readLong(), len, in.readInt()));
+            }
+
+            mEnd = end;
+            mDead = dead;
+            return true;
+
+        } catch (IOException e) {
+            /* no index yet, or a broken one: the pack is read instead */
+            mEntries.clear();
+            return false;
+
+        } finally {
+            try {
+                if(in != null)
+                    in.close();
+            } catch (IOException e) {
+                Log.e("IOException", e.getMessage());
+            }
+        }
+    }
+
+    /* (non-Javadoc)
+     * Adds the records from mEnd to the end of the pack to the index. A
+     * record cut short by a crash is dropped with everything after it.
+     */
+    private void scan(long length) throws IOException {
+        long pos = mEnd;
+        byte[] name = new byte[256];
+
+        while(pos + RECORD_HEADER <= length) {
+            mFile.seek(pos);
+
+            try {
+                if(mFile.readInt() != RECORD)
+                    break;
+
+                int len = mFile.readShort();
+                if(len < 0 || pos + RECORD_HEADER + len > length)
+                    break;
+
+                if(name.length < len)
+                    name = new byte[len];
+                mFile.readFully(name, 0, len);
+
+                long size = mFile.readLong();
+                long modified = mFile.readLong();
+                int dataLength = mFile.readInt();
+
+                if(dataLength < 0 || pos + RECORD_HEADER + len + dataLength > length)
+                    break;
+
+                Entry old = mEntries.put(new String(name, 0, len, UTF8),
+                        new Entry(size, modified, pos, len, dataLength));
+                if(old != null)
+                    mDead += old.recordLength();
+
+                pos += RECORD_HEADER + len + dataLength;
+                mDirty = true;
+
+            } catch (EOFException e) {
+                break;
+            }
+        }
+
+        if(pos < length) {
+            mFile.setLength(pos);
+            mDirty = true;
+        }
+        mEnd = pos;
+    }
+
+    private void forget(String path, Entry e) {
+        mEntries.remove(path);
+        mDead += e.recordLength();
+        mDirty = true;
+    }
+
+    /* (non-Javadoc)
+     * Copies the most recently used thumbnails, up to KEEP_BYTES, into a new
+     * pack and swaps it in. The copying is done without holding the lock;
+     * thumbnails put meanwhile are copied over at the swap.
+     */
+    private void compact() {
+        HashMap<String, Entry> picked = new HashMap<String, Entry>();
+        long generation = System.currentTimeMillis();
+        long snapshotEnd;
+        File tmp = new File(mPack.getPath() + ".tmp");
+
+        synchronized(this) {
+            ArrayList<Map.Entry<String, Entry>> all = new ArrayList<Map.Entry<String, Entry>>(mEntries.entrySet());
+            long kept = 0;
+
+            /* most recently used last */
+            for(int i = all.size() - 1; i >= 0 && kept < KEEP_BYTES; i--) {
+                picked.put(all.get(i).getKey(), all.get(i).getValue());
+                kept += all.get(i).getValue().recordLength();
+            }
+            snapshotEnd = mEnd;
+        }
+
+        HashMap<String, Entry> moved = new HashMap<String, Entry>();
+        RandomAccessFile from = null;
+        RandomAccessFile to = null;
+
+        try {
+            from = new RandomAccessFile(mPack, "r");
+            to = new RandomAccessFile(tmp, "rw");
+            to.setLength(0);
+            to.writeInt(MAGIC);
+            to.writeInt(VERSION);
+            to.writeLong(generation);
+
+            for(Map.Entry<String, Entry> item : picked.entrySet())
+                moved.put(item.getKey(), copy(from, to, item.getValue()));
+
+            synchronized(this) {
+                LinkedHashMap<String, Entry> swapped = new LinkedHashMap<String, Entry>(256, 0.75f, true);
+
+                /* in use order; entries dropped as stale meanwhile are gone already */
+                for(Map.Entry<String, Entry> item : mEntries.entrySet()) {
+                    Entry e = item.getValue();
+
+                    if(picked.get(item.getKey()) == e)
+                        swapped.put(item.getKey(), moved.get(item.getKey()));
+                    else if(e.offset >= snapshotEnd)
+                        swapped.put(item.getKey(), copy(from, to, e));
+                }
+
+                long end = to.length();
+                to.close();
+                to = null;
+
+                if(!tmp.renameTo(mPack))
+                    throw new IOException("could not replace " + mPack.getPath());
+
+                mFile.close();
+                mFile = new RandomAccessFile(mPack, "rw");
+                mMap = null;
+                mEntries.clear();
+                mEntries.putAll(swapped);
+                mGeneration = generation;
+                mEnd = end;
+                mDead = 0;
+                mDirty = true;
+                flush();
+            }
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            tmp.delete();
+
+        } finally {
+            synchronized(this) {
+                mCompacting = false;
+            }
+
+            try {
+                if(from != null)
+                    from.close();
+                if(to != null)
+                    to.close();
+            } catch (IOException e) {
+                Log.e("IOException", e.getMessage());
+            }
+        }
+    }
+
+    private static Entry copy(RandomAccessFile from, RandomAccessFile to, Entry e) throws IOException {
+        byte[] record = new byte[(int)e.recordLength()];
+        long offset = to.length();
+
+        from.seek(e.offset);
+        from.readFully(record);
+        to.seek(offset);
+        to.write(record);
+
+        return new Entry(e.size, e.modified, offset, e.pathLength, e.length);
+    }
+}
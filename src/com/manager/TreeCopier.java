@@ -0,0 +1,339 @@
+package com.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Copies a whole directory tree. The directory skeleton is created first on
+ * the calling thread, then every file in the tree is handed to a fixed pool
+ * of worker threads and copied with CopyEngine. The number of workers is
+ * the parallelism given to the constructor.
+ * <br>
+ * <br>
+ * Like FileManager this class does no threading for the caller; copy()
+ * blocks until every file has been copied or has failed.
+ * <br>
+ * <br>
+ * In resumable mode a CopyJournal is kept next to the destination. Files
+ * bigger than CHUNK are written in CHUNK sized pieces, each forced to disk
+ * and recorded before the next one starts. Smaller files are copied with
+ * CopyEngine like in a plain copy and recorded as done in batches, so a tree
+ * of small files is not slowed down by a sync per file; one whose copy does
+ * not have the size of its source on resume is copied again. If the copy is
+ * interrupted, running it again skips the files that were finished and
+ * continues the others where they stopped, unless their source changed size
+ * or modification time in the meantime. The journal is deleted once
+ * everything was copied. A single file no bigger than one chunk is copied
+ * without a journal as there would be nothing to resume.
+ */
+public class TreeCopier {
+    static final long CHUNK = 			4 * 1024 * 1024;
+
+    private final int mParallelism;
+    private boolean mResumable = false;
+    private ProgressTracker mTracker = new ProgressTracker(null);
+
+    /**
+     * The totals of a tree copy.
+     */
+    public static class Result {
+        private final AtomicInteger mFiles = new AtomicInteger();
+        private final AtomicInteger mDirs = new AtomicInteger();
+        private final AtomicLong mBytes = new AtomicLong();
+        private final ArrayList<String> mFailures = new ArrayList<String>();
+
+        /** @return	the number of files copied */
+        public int getFilesCopied() { return mFiles.get(); }
+
+        /** @return	the number of directories created */
+        public int getDirsCreated() { return mDirs.get(); }
+
+        /** @return	the number of bytes copied */
+        public long getBytesCopied() { return mBytes.get(); }
+
+        /** @return	the source paths that could not be copied */
+        public synchronized ArrayList<String> getFailures() {
+            return new ArrayList<String>(mFailures);
+        }
+
+        /** @return	true if nothing failed */
+        public synchronized boolean isSuccessful() {
+            return mFailures.isEmpty();
+        }
+
+        synchronized void addFailure(String path) {
+            mFailures.add(path);
+        }
+    }
+
+    /**
+     * @param parallelism	the most files that will be copied at the same time
+     */
+    public TreeCopier(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Turns resumable mode on or off. See the class comment.
+     *
+     * @param resumable	true to journal the copy so it can be resumed
+     */
+    public void setResumable(boolean resumable) {
+        mResumable = resumable;
+    }
+
+    /**
+     * Sets the tracker that is told the totals once the skeleton is built and
+     * then every byte and file copied.
+     *
+     * @param tracker	the tracker for this copy
+     */
+    public void setProgressTracker(ProgressTracker tracker) {
+        mTracker = tracker;
+    }
+
+    /**
+     * Copies src, a file or a directory, into the directory destDir. In
+     * resumable mode an unfinished earlier copy of src into destDir is
+     * continued.
+     *
+     * @param src		the file or directory to copy
+     * @param destDir	the directory to copy into
+     * @return	the totals of the copy
+     */
+    public Result copy(File src, File destDir) {
+        Result result = new Result();
+        ArrayList<File[]> leaves = new ArrayList<File[]>();
+        CopyJournal journal = null;
+
+        if(mResumable && (src.isDirectory() || src.length() > CHUNK ||
+                          CopyJournal.exists(src, destDir))) {
+            try {
+                journal = new CopyJournal(src, destDir);
+
+            } catch (IOException e) {
+                Log.e("IOException", "journal for " + src.getPath() + ": " + e.getMessage());
+                result.addFailure(src.getPath());
+                return result;
+            }
+        }
+
+        File dest = new File(destDir, src.getName());
+        long bytes = buildSkeleton(src, dest, leaves, result, journal != null && journal.isResuming());
+
+        mTracker.setTotals(leaves.size(), bytes);
+        copyLeaves(leaves, destDir.getPath().length() + 1, journal, result);
+
+        if(journal != null) {
+            if(result.isSuccessful())
+                journal.finish();
+            else
+                journal.close();
+        }
+
+        return result;
+    }
+
+    private void copyLeaves(ArrayList<File[]> leaves, final int prefix,
+                            final CopyJournal journal, final Result result) {
+
+        if(leaves.size() <= 1 || mParallelism == 1) {
+            for(File[] leaf : leaves)
+                copyLeaf(leaf[0], leaf[1], prefix, journal, result);
+
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(mParallelism, leaves.size()));
+
+        for(final File[] leaf : leaves) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    copyLeaf(leaf[0], leaf[1], prefix, journal, result);
+                }
+            });
+        }
+
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            result.addFailure(leaves.get(0)[0].getPath());
+        }
+    }
+
+    /* (non-Javadoc)
+     * Walks the source tree without recursion, creating each directory under
+     * dest and collecting {source, destination} pairs for every file found.
+     * A directory that cannot be read or created is recorded as a failure and
+     * nothing below it is visited. The new copy itself is skipped so a folder
+     * pasted into one of its own subfolders does not copy forever. When
+     * resuming, directories left by the earlier copy are reused. Returns the
+     * total size of the files found.
+     */
+    private long buildSkeleton(File src, File dest, ArrayList<File[]> leaves,
+                               Result result, boolean resuming) {
+        ArrayList<File[]> dirs = new ArrayList<File[]>();
+        long bytes = 0;
+
+        if(src.isFile()) {
+            leaves.add(new File[] {src, dest});
+            return src.length();
+        }
+
+        dirs.add(new File[] {src, dest});
+
+        while(!dirs.isEmpty()) {
+            File[] pair = dirs.remove(dirs.size() - 1);
+            String[] list = pair[0].list();
+
+            if(list == null || !(pair[1].mkdir() || resuming && pair[1].isDirectory())) {
+                result.addFailure(pair[0].getPath());
+                continue;
+            }
+            result.mDirs.incrementAndGet();
+
+            for(String name : list) {
+                File child = new File(pair[0], name);
+
+                if(child.equals(dest))
+                    continue;
+
+                if(child.isDirectory()) {
+                    dirs.add(new File[] {child, new File(pair[1], name)});
+                } else {
+                    leaves.add(new File[] {child, new File(pair[1], name)});
+                    bytes += child.length();
+                }
+            }
+        }
+
+        return bytes;
+    }
+
+    private void copyLeaf(File src, File dest, int prefix, CopyJournal journal, Result result) {
+        long bytes;
+
+        mTracker.setCurrentFile(src.getPath());
+
+        if(journal == null) {
+            bytes = CopyEngine.copy(src, dest, mTracker) == CopyEngine.STRATEGY_FAILED ?
+                    -1 : dest.length();
+        } else if(src.length() <= CHUNK) {
+            bytes = copySmall(src, dest, dest.getPath().substring(prefix), journal);
+        } else {
+            bytes = copyChunked(src, dest, dest.getPath().substring(prefix), journal);
+        }
+
+        if(bytes < 0) {
+            Log.e("TreeCopier", "could not copy " + src.getPath());
+            result.addFailure(src.getPath());
+            return;
+        }
+
+        result.mFiles.incrementAndGet();
+        result.mBytes.addAndGet(bytes);
+        mTracker.fileDone();
+    }
+
+    /* (non-Javadoc)
+     * Copies a file of at most one chunk in one go, unless the journal has it
+     * as done and its copy is whole. Returns the bytes written, or -1 on
+     * failure.
+     */
+    private long copySmall(File src, File dest, String path, CopyJournal journal) {
+        if(journal.isDone(path, src) && dest.length() == src.length()) {
+            mTracker.skipBytes(src.length());
+            return 0;
+        }
+
+        if(CopyEngine.copy(src, dest, mTracker) == CopyEngine.STRATEGY_FAILED)
+            return -1;
+
+        try {
+            journal.recordDone(path, src);
+
+        } catch (IOException e) {
+            Log.e("IOException", "journal for " + src.getPath() + ": " + e.getMessage());
+            return -1;
+        }
+
+        return dest.length();
+    }
+
+    /* (non-Javadoc)
+     * Copies src to dest CHUNK bytes at a time, starting from the offset the
+     * journal has for path. Returns the number of bytes written by this call,
+     * which is 0 for a file the journal already has as done, or -1 on failure.
+     */
+    private long copyChunked(File src, File dest, String path, CopyJournal journal) {
+        FileInputStream i_stream = null;
+        RandomAccessFile o_file = null;
+
+        if(journal.isDone(path, src) && dest.length() == src.length()) {
+            mTracker.skipBytes(src.length());
+            return 0;
+        }
+
+        try {
+            i_stream = new FileInputStream(src);
+            o_file = new RandomAccessFile(dest, "rw");
+
+            FileChannel in = i_stream.getChannel();
+            FileChannel out = o_file.getChannel();
+            long size = in.size();
+            long start = Math.min(journal.getOffset(path, src), Math.min(size, o_file.length()));
+            long pos = start;
+
+            /* anything past the recorded offset was never confirmed, drop it */
+            o_file.setLength(pos);
+            out.position(pos);
+            mTracker.skipBytes(pos);
+
+            while(pos < size) {
+                long count = Math.min(CHUNK, size - pos);
+
+                CopyEngine.copyRange(in, out, pos, count, mTracker);
+                pos += count;
+
+                if(pos < size) {
+                    out.force(false);
+                    journal.recordOffset(path, src, pos);
+                }
+            }
+
+            out.force(false);
+            journal.recordDone(path, src);
+            return pos - start;
+
+        } catch (IOException e) {
+            Log.e("IOException", "copy " + src.getPath() + ": " + e.getMessage());
+            return -1;
+
+        } finally {
+            try {
+                if(i_stream != null)
+                    i_stream.close();
+                if(o_file != null)
+                    o_file.close();
+            } catch (IOException e) {
+                Log.e("IOException", e.getMessage());
+            }
+        }
+    }
+}
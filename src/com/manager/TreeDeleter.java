@@ -0,0 +1,136 @@
+package com.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deletes a file or a whole directory tree using a TreeWalker, so separate
+ * subtrees are emptied at the same time. Each directory is removed as soon
+ * as everything in it is gone.
+ * <br>
+ * <br>
+ * Every entry is simply deleted first. Only if that fails is it checked for
+ * being a directory, so files and empty folders cost one length() and one
+ * delete() and never an isDirectory()/isFile() pair.
+ */
+public class TreeDeleter {
+    private final int mParallelism;
+    private ProgressTracker mTracker = new ProgressTracker(null);
+
+    /**
+     * The totals of a delete.
+     */
+    public static class Result {
+        private final AtomicInteger mDeleted = new AtomicInteger();
+        private final ArrayList<String> mFailures = new ArrayList<String>();
+
+        /** @return	the number of files and folders deleted */
+        public int getDeleted() { return mDeleted.get(); }
+
+        /** @return	every path that could not be deleted */
+        public synchronized ArrayList<String> getFailures() {
+            return new ArrayList<String>(mFailures);
+        }
+
+        /** @return	true if everything was deleted */
+        public synchronized boolean isSuccessful() {
+            return mFailures.isEmpty();
+        }
+
+        synchronized void addFailure(String path) {
+            mFailures.add(path);
+        }
+    }
+
+    /**
+     * @param parallelism	the number of folders worked on at the same time
+     */
+    public TreeDeleter(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets the tracker told about each file deleted.
+     */
+    public void setProgressTracker(ProgressTracker tracker) {
+        mTracker = tracker;
+    }
+
+    /**
+     * Deletes target and, if it is a directory, everything below it.
+     *
+     * @param target	the file or folder to delete
+     * @return	the number deleted and the paths that could not be
+     */
+    public Result delete(File target) {
+        final Result result = new Result();
+
+        if(!target.exists()) {
+            result.addFailure(target.getPath());
+            return result;
+        }
+
+        if(deleteEntry(target, result))
+            return result;
+
+        if(!target.isDirectory()) {
+            result.addFailure(target.getPath());
+            return result;
+        }
+
+        new TreeWalker(mParallelism).walk(target, new TreeWalker.Visitor() {
+            @Override
+            public File[] enterDirectory(File dir) {
+                String[] list = dir.list();
+                ArrayList<File> subs = new ArrayList<File>();
+
+                if(list == null) {
+                    result.addFailure(dir.getPath());
+                    return null;
+                }
+
+                for(String name : list) {
+                    File child = new File(dir, name);
+
+                    mTracker.setCurrentFile(child.getPath());
+                    if(deleteEntry(child, result))
+                        continue;
+
+                    if(child.isDirectory())
+                        subs.add(child);
+                    else
+                        result.addFailure(child.getPath());
+                }
+
+                return subs.toArray(new File[subs.size()]);
+            }
+
+            @Override
+            public void exitDirectory(File dir) {
+                if(dir.delete())
+                    result.mDeleted.incrementAndGet();
+                else
+                    result.addFailure(dir.getPath());
+            }
+        });
+
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * Deletes a file or an empty folder. Returns false if it is still there,
+     * usually because it is a folder with something in it.
+     */
+    private boolean deleteEntry(File file, Result result) {
+        long size = file.length();
+
+        if(!file.delete())
+            return false;
+
+        result.mDeleted.incrementAndGet();
+        mTracker.addBytes(size);
+        mTracker.fileDone();
+        return true;
+    }
+}
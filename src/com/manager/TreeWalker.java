@@ -0,0 +1,200 @@
+package com.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * Walks a directory tree on a pool of worker threads. Every directory found
+ * becomes its own task, so idle workers pick up whatever subtree is waiting
+ * next and a deep or lopsided tree still keeps all of them busy.
+ * <br>
+ * <br>
+ * What happens in each directory is left to a Visitor. enterDirectory is
+ * called first and returns the subdirectories to walk into; exitDirectory is
+ * called once all of those have been exited, which lets a visitor work
+ * bottom up (deleting a directory once it is empty, adding up sizes).
+ * Both may be called on any worker thread and at the same time for
+ * different directories.
+ */
+public class TreeWalker {
+    private final int mParallelism;
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Decides what is done in each directory of the walk.
+     */
+    public interface Visitor {
+        /**
+         * Called once for every directory reached.
+         *
+         * @param dir	the directory
+         * @return	the subdirectories to walk into, null if none
+         */
+        File[] enterDirectory(File dir);
+
+        /**
+         * Called after every subdirectory returned by enterDirectory for dir
+         * has been exited. Not called once the walk is cancelled.
+         *
+         * @param dir	the directory
+         */
+        void exitDirectory(File dir);
+    }
+
+    /**
+     * @param parallelism	the number of worker threads
+     */
+    public TreeWalker(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Stops the walk. Directories already being visited finish, nothing new
+     * is entered and walk() returns as soon as the workers drain.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * @return	true if cancel() was called or the walk was interrupted
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Walks the tree under root, blocking until every directory has been
+     * visited or the walk was cancelled.
+     *
+     * @param root		the directory to start from
+     * @param visitor	what to do in each directory
+     * @return	true if the whole tree was walked, false if it was cancelled
+     */
+    public boolean walk(File root, Visitor visitor) {
+        ExecutorService pool = Executors.newFixedThreadPool(mParallelism);
+        Walk walk = new Walk(pool, visitor);
+
+        walk.submit(new Node(root, null));
+
+        try {
+            walk.mDone.await();
+
+        } catch (InterruptedException e) {
+            mCancelled = true;
+            Thread.currentThread().interrupt();
+        }
+
+        pool.shutdown();
+        return !mCancelled;
+    }
+
+    /**
+     * Tells if file is a symbolic link, so walks that only read can keep
+     * from following links into a loop or out of the tree. Costs two
+     * canonical path lookups, so it is meant for directories only.
+     *
+     * @param file	the file to check
+     * @return	true if file is a link, false if not or if it cannot be told
+     */
+    public static boolean isLink(File file) {
+        File parent = file.getParentFile();
+
+        if(parent == null)
+            return false;
+
+        try {
+            File real = new File(parent.getCanonicalFile(), file.getName());
+            return !real.getCanonicalPath().equals(real.getAbsolutePath());
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class Node {
+        final File dir;
+        final Node parent;
+        final AtomicInteger pending = new AtomicInteger(1);
+
+        Node(File dir, Node parent) {
+            this.dir = dir;
+            this.parent = parent;
+        }
+    }
+
+    /* (non-Javadoc)
+     * The state of one call to walk(). A node's pending count starts as its
+     * number of subdirectories plus one for itself; each finished child and
+     * the node's own visit take one off, and whoever takes the last one off
+     * exits the directory and moves on to the parent.
+     */
+    private class Walk {
+        final ExecutorService mPool;
+        final Visitor mVisitor;
+        final CountDownLatch mDone = new CountDownLatch(1);
+
+        Walk(ExecutorService pool, Visitor visitor) {
+            mPool = pool;
+            mVisitor = visitor;
+        }
+
+        void submit(final Node node) {
+            try {
+                mPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        visit(node);
+                    }
+                });
+
+            } catch (RejectedExecutionException e) {
+                complete(node);
+            }
+        }
+
+        void visit(Node node) {
+            File[] subs = null;
+
+            if(!mCancelled) {
+                try {
+                    subs = mVisitor.enterDirectory(node.dir);
+                } catch (RuntimeException e) {
+                    Log.e("TreeWalker", "entering " + node.dir.getPath(), e);
+                }
+            }
+
+            if(subs != null && subs.length > 0) {
+                node.pending.addAndGet(subs.length);
+
+                for(File sub : subs)
+                    submit(new Node(sub, node));
+            }
+
+            complete(node);
+        }
+
+        void complete(Node node) {
+            while(node != null && node.pending.decrementAndGet() == 0) {
+                if(!mCancelled) {
+                    try {
+                        mVisitor.exitDirectory(node.dir);
+                    } catch (RuntimeException e) {
+                        Log.e("TreeWalker", "exiting " + node.dir.getPath(), e);
+                    }
+                }
+
+                if(node.parent == null)
+                    mDone.countDown();
+                node = node.parent;
+            }
+        }
+    }
+}
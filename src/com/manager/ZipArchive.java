@@ -0,0 +1,468 @@
+package com.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * A zip file seen as a tree of folders, so it can be browsed like any other
+ * directory. A path such as /sdcard/photos.zip/2012/beach.jpg names the
+ * entry 2012/beach.jpg inside /sdcard/photos.zip.
+ * <br>
+ * <br>
+ * Opening an archive reads only its end record and central directory, the
+ * latter memory-mapped and parsed once into plain arrays, so the compressed
+ * data is never touched and the time taken depends on the number of entries
+ * rather than the size of the zip. Folders the zip does not list themselves
+ * are made up from the entry names. A single entry is read on demand with
+ * extract().
+ */
+public class ZipArchive {
+    /* zip records, all numbers little endian */
+    private static final int END_HEADER = 		0x06054b50;
+    private static final int END64_LOCATOR = 	0x07064b50;
+    private static final int END64_HEADER = 	0x06064b50;
+    private static final int CENTRAL_HEADER = 	0x02014b50;
+    private static final int LOCAL_HEADER = 	0x04034b50;
+    private static final int END_SIZE = 		22;
+    private static final int CENTRAL_SIZE = 	46;
+    private static final int LOCAL_SIZE = 		30;
+    private static final int ZIP64_EXTRA = 		0x0001;
+    private static final int BUFFER_SIZE = 		64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final long mModified;
+    private final long mLength;
+
+    private String[] mNames;
+    private long[] mSizes;
+    private long[] mCompressed;
+    private long[] mOffsets;
+    private int[] mTimes;
+    private int[] mMethods;
+    private int[] mCrcs;
+    private final HashMap<String, Folder> mFolders = new HashMap<String, Folder>();
+    private final HashMap<String, Integer> mEntries = new HashMap<String, Integer>();
+
+    /*
+     * What one folder of the archive holds directly.
+     */
+    private static final class Folder {
+        final ArrayList<String> dirs = new ArrayList<String>();
+        final ArrayList<Integer> files = new ArrayList<Integer>();
+        int modified;
+    }
+
+    private ZipArchive(File file) {
+        mFile = file;
+        mModified = file.lastModified();
+        mLength = file.length();
+    }
+
+    /**
+     * Splits a path into the zip it goes through and the path inside it.
+     * Only names ending in .zip are checked against the disk.
+     *
+     * @param path	a full path
+     * @return	the path of the zip and the path inside it, which is empty for
+     * 			the top of the zip, or null if path does not go through a zip
+     */
+    public static String[] split(String path) {
+        int from = 0;
+
+        while(true) {
+            int dot = path.toLowerCase(Locale.ENGLISH).indexOf(".zip", from);
+
+            if(dot < 0)
+                return null;
+
+            int end = dot + 4;
+            if(end == path.length() || path.charAt(end) == '/') {
+                String zip = path.substring(0, end);
+
+                if(new File(zip).isFile())
+                    return new String[] {zip, end == path.length() ? "" : trim(path.substring(end + 1))};
+            }
+            from = end;
+        }
+    }
+
+    /**
+     * Reads the central directory of a zip.
+     *
+     * @param file	the zip
+     * @return	the archive
+     * @throws IOException	if the file cannot be read or is not a zip
+     */
+    public static ZipArchive open(File file) throws IOException {
+        ZipArchive archive = new ZipArchive(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            archive.readCentral(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+
+        return archive;
+    }
+
+    /**
+     * @return	the zip file this archive was read from
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return	true if the zip has not changed since it was opened
+     */
+    public boolean isCurrent() {
+        return mFile.lastModified() == mModified && mFile.length() == mLength;
+    }
+
+    /**
+     * @return	the number of entries in the central directory
+     */
+    public int size() {
+        return mNames.length;
+    }
+
+    /**
+     * @param inner	a path inside the archive, empty for its top
+     * @return	true if it is a folder of the archive
+     */
+    public boolean isDirectory(String inner) {
+        return mFolders.containsKey(trim(inner));
+    }
+
+    /**
+     * Lists one folder of the archive. The entries have full paths through
+     * the zip, can be read and cannot be written.
+     *
+     * @param inner			the folder inside the archive, empty for its top
+     * @param showHidden	true to list names starting with a dot
+     * @return	the entries in central directory order, or null if there is
+     * 			no such folder
+     */
+    public ArrayList<FileEntry> list(String inner, boolean showHidden) {
+        String dir = trim(inner);
+        Folder folder = mFolders.get(dir);
+        String base = mFile.getPath() + (dir.length() == 0 ? "" : "/" + dir);
+
+        if(folder == null)
+            return null;
+
+        ArrayList<FileEntry> content = new ArrayList<FileEntry>(folder.dirs.size() + folder.files.size());
+        Calendar calendar = Calendar.getInstance();
+
+        for(String name : folder.dirs) {
+            if(!showHidden && name.charAt(0) == '.')
+                continue;
+
+            Folder sub = mFolders.get(dir.length() == 0 ? name : dir + "/" + name);
+            content.add(FileEntry.inArchive(name, base + "/" + name, true, 0, time(calendar, sub.modified),
+                    sub.dirs.size() + sub.files.size()));
+        }
+
+        for(int i : folder.files) {
+            String name = mNames[i].substring(mNames[i].lastIndexOf('/') + 1);
+
+            if(!showHidden && name.charAt(0) == '.')
+                continue;
+            content.add(FileEntry.inArchive(name, base + "/" + name, false, mSizes[i],
+                    time(calendar, mTimes[i]), -1));
+        }
+
+        return content;
+    }
+
+    /**
+     * Extracts one file of the archive, checking its CRC.
+     *
+     * @param inner	the path of the file inside the archive
+     * @param dest	the file to write, replaced if it exists
+     * @return	true if the whole file was written and its CRC matched
+     * @throws IOException	if the zip or dest cannot be read or written
+     */
+    public boolean extract(String inner, File dest) throws IOException {
+        Integer index = mEntries.get(trim(inner));
+
+        if(index == null)
+            return false;
+
+        int i = index;
+        FileInputStream in = new FileInputStream(mFile);
+        OutputStream out = null;
+        boolean ok = false;
+
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            channel.position(mOffsets[i]);
+            while(header.hasRemaining())
+                if(channel.read(header) < 0)
+                    throw new IOException("truncated zip " + mFile.getPath());
+
+            if(header.getInt(0) != LOCAL_HEADER)
+                throw new IOException("bad local header for " + inner);
+
+            channel.position(mOffsets[i] + LOCAL_SIZE + (header.getShort(26) & 0xffff) +
+                    (header.getShort(28) & 0xffff));
+
+            InputStream data = in;
+            Inflater inflater = null;
+
+            if(mMethods[i] == ZipEntry.DEFLATED) {
+                inflater = new Inflater(true);
+                data = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+            } else if(mMethods[i] != ZipEntry.STORED) {
+                throw new IOException("unsupported compression for " + inner);
+            }
+
+            out = new FileOutputStream(dest);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            long left = mSizes[i];
+
+            try {
+                while(left > 0) {
+                    int n = data.read(buffer, 0, (int)Math.min(buffer.length, left));
+
+                    if(n < 0)
+                        break;
+
+                    out.write(buffer, 0, n);
+                    crc.update(buffer, 0, n);
+                    left -= n;
+                }
+            } finally {
+                if(inflater != null)
+                    inflater.end();
+            }
+
+            ok = left == 0 && (int)crc.getValue() == mCrcs[i];
+
+        } finally {
+            in.close();
+            if(out != null)
+                out.close();
+            if(!ok)
+                dest.delete();
+        }
+
+        if(ok && mTimes[i] != 0)
+            dest.setLastModified(time(Calendar.getInstance(), mTimes[i]));
+
+        return ok;
+    }
+
+    /* (non-Javadoc)
+     * Finds the end record near the end of the file, maps the central
+     * directory it points at and parses every entry of it.
+     */
+    private void readCentral(FileChannel channel) throws IOException {
+        long length = channel.size();
+        long tailStart = Math.max(0, length - (END_SIZE + 0xffff));
+        MappedByteBuffer tail = map(channel, tailStart, length - tailStart);
+        int end = -1;
+
+        for(int pos = tail.limit() - END_SIZE; pos >= 0; pos--) {
+            if(tail.getInt(pos) == END_HEADER) {
+                end = pos;
+                break;
+            }
+        }
+
+        if(end < 0)
+            throw new IOException(mFile.getPath() + " is not a zip file");
+
+        long count = tail.getShort(end + 10) & 0xffff;
+        long size = tail.getInt(end + 12) & 0xffffffffL;
+        long offset = tail.getInt(end + 16) & 0xffffffffL;
+
+        /* a zip64 end record sits before a locator right above the end record */
+        if((count == 0xffff || size == 0xffffffffL || offset == 0xffffffffL) &&
+                end >= 20 && tail.getInt(end - 20) == END64_LOCATOR) {
+            long at = tail.getLong(end - 12);
+            MappedByteBuffer end64 = map(channel, at, 56);
+
+            if(end64.getInt(0) != END64_HEADER)
+                throw new IOException("bad zip64 end record in " + mFile.getPath());
+
+            count = end64.getLong(32);
+            size = end64.getLong(40);
+            offset = end64.getLong(48);
+        }
+
+        if(offset + size > length || size > Integer.MAX_VALUE || count > Integer.MAX_VALUE)
+            throw new IOException("bad central directory in " + mFile.getPath());
+
+        parse(map(channel, offset, size), (int)count);
+    }
+
+    private void parse(MappedByteBuffer cd, int count) throws IOException {
+        mNames = new String[count];
+        mSizes = new long[count];
+        mCompressed = new long[count];
+        mOffsets = new long[count];
+        mTimes = new int[count];
+        mMethods = new int[count];
+        mCrcs = new int[count];
+        mFolders.put("", new Folder());
+
+        byte[] name = new byte[256];
+        int pos = 0;
+
+        for(int i = 0; i < count; i++) {
+            if(pos + CENTRAL_SIZE > cd.limit() || cd.getInt(pos) != CENTRAL_HEADER)
+                throw new IOException("bad central directory in " + mFile.getPath());
+
+            int nameLen = cd.getShort(pos + 28) & 0xffff;
+            int extraLen = cd.getShort(pos + 30) & 0xffff;
+            int commentLen = cd.getShort(pos + 32) & 0xffff;
+
+            mMethods[i] = cd.getShort(pos + 10) & 0xffff;
+            mTimes[i] = cd.getInt(pos + 12);
+            mCrcs[i] = cd.getInt(pos + 16);
+            mCompressed[i] = cd.getInt(pos + 20) & 0xffffffffL;
+            mSizes[i] = cd.getInt(pos + 24) & 0xffffffffL;
+            mOffsets[i] = cd.getInt(pos + 42) & 0xffffffffL;
+
+            if(name.length < nameLen)
+                name = new byte[nameLen];
+            cd.position(pos + CENTRAL_SIZE);
+            cd.get(name, 0, nameLen);
+            mNames[i] = new String(name, 0, nameLen, UTF8);
+
+            if(mSizes[i] == 0xffffffffL || mCompressed[i] == 0xffffffffL || mOffsets[i] == 0xffffffffL)
+                readZip64(cd, pos + CENTRAL_SIZE + nameLen, extraLen, i);
+
+            add(i);
+            pos += CENTRAL_SIZE + nameLen + extraLen + commentLen;
+        }
+    }
+
+    /* (non-Javadoc)
+     * Takes the sizes and offset that did not fit in 32 bits from the zip64
+     * extra field, which holds only those, in this order.
+     */
+    private void readZip64(MappedByteBuffer cd, int pos, int length, int i) {
+        int end = pos + length;
+
+        while(pos + 4 <= end) {
+            int id = cd.getShort(pos) & 0xffff;
+            int size = cd.getShort(pos + 2) & 0xffff;
+            int at = pos + 4;
+
+            if(id == ZIP64_EXTRA) {
+                if(mSizes[i] == 0xffffffffL && at + 8 <= end) {
+                    mSizes[i] = cd.getLong(at);
+                    at += 8;
+                }
+                if(mCompressed[i] == 0xffffffffL && at + 8 <= end) {
+                    mCompressed[i] = cd.getLong(at);
+                    at += 8;
+                }
+                if(mOffsets[i] == 0xffffffffL && at + 8 <= end)
+                    mOffsets[i] = cd.getLong(at);
+                return;
+            }
+            pos += 4 + size;
+        }
+    }
+
+    /* (non-Javadoc)
+     * Files entry i under its folder, making up the folders on its path.
+     * Names that are absolute or climb out with .. are left out.
+     */
+    private void add(int i) {
+        String path = mNames[i];
+        boolean dir = path.endsWith("/");
+
+        path = trim(path);
+        if(path.length() == 0 || mNames[i].charAt(0) == '/' ||
+                (path.contains("..") && ("/" + path + "/").contains("/../")))
+            return;
+
+        if(dir) {
+            folder(path).modified = mTimes[i];
+            return;
+        }
+
+        int slash = path.lastIndexOf('/');
+        folder(slash < 0 ? "" : path.substring(0, slash)).files.add(i);
+        mEntries.put(path, i);
+    }
+
+    private Folder folder(String path) {
+        Folder folder = mFolders.get(path);
+
+        if(folder != null)
+            return folder;
+
+        folder = new Folder();
+        mFolders.put(path, folder);
+
+        int slash = path.lastIndexOf('/');
+        folder(slash < 0 ? "" : path.substring(0, slash)).dirs.add(path.substring(slash + 1));
+
+        return folder;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /* (non-Javadoc)
+     * Turns an MS-DOS date and time into milliseconds. Times are kept in
+     * the DOS form and only turned for the entries actually listed.
+     */
+    private static long time(Calendar c, int time) {
+        if(time == 0)
+            return 0;
+
+        c.clear();
+        c.set(((time >> 25) & 0x7f) + 1980, ((time >> 21) & 0x0f) - 1, (time >> 16) & 0x1f,
+                (time >> 11) & 0x1f, (time >> 5) & 0x3f, (time & 0x1f) << 1);
+
+        return c.getTimeInMillis();
+    }
+
+    /* (non-Javadoc)
+     * Drops the slashes at either end, so a/b/, /a/b and a/b are the same.
+     */
+    private static String trim(String path) {
+        int start = 0, end = path.length();
+
+        while(start < end && path.charAt(start) == '/')
+            start++;
+        while(end > start && path.charAt(end - 1) == '/')
+            end--;
+
+        return start == 0 && end == path.length() ? path : path.substring(start, end);
+    }
+}
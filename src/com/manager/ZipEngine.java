@@ -0,0 +1,739 @@
+package com.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import android.util.Log;
+
+/**
+ * Creates and extracts zip files. Like CopyEngine this class has no
+ * reference to any GUI activity; FileManager decides where the results go.
+ * <br>
+ * <br>
+ * When zipping, every file is deflated on its own worker thread into a
+ * buffer, which moves to a temp file once it grows past SPILL_SIZE, so a
+ * big file is never held in memory. The writer takes the finished entries
+ * in the order they were handed out and copies them to the zip, keeping at
+ * most a few entries per worker waiting. Files that are compressed already
+ * (photos, music, video, archives) or that deflate gains nothing on are
+ * stored as they are, read a second time by the writer. Temp files go to
+ * the folder given to setTempDir(), not next to the zip, and if the zip
+ * fails they are deleted along with the zip itself.
+ * <br>
+ * <br>
+ * When extracting, entries are streamed through one large buffer, and
+ * each folder is created once no matter how many entries it holds.
+ * Entries whose name would land outside the target folder are skipped.
+ */
+public class ZipEngine {
+    private static final int BUFFER_SIZE = 		256 * 1024;
+    private static final int SPILL_SIZE = 		1024 * 1024;
+
+    /* zip headers, all numbers little endian */
+    private static final int LOCAL_HEADER = 	0x04034b50;
+    private static final int CENTRAL_HEADER = 	0x02014b50;
+    private static final int END_HEADER = 		0x06054b50;
+    private static final int VERSION = 			20;
+    private static final int FLAG_UTF8 = 		0x0800;
+    private static final int MAX_ENTRIES = 		0xffff;
+    private static final long MAX_OFFSET = 		0xffffffffL;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final HashSet<String> STORED_TYPES = new HashSet<String>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "mp3", "m4a", "m4p", "wma", "ogg", "mp4", "m4v",
+            "3gp", "wmv", "mkv", "avi", "zip", "gz", "gzip", "apk", "jar", "rar", "7z"));
+
+    private final int mParallelism;
+    private ProgressTracker mTracker = new ProgressTracker(null);
+    private File mTempDir;
+    /* set when a zip fails, so the entries still being read give up */
+    private volatile boolean mStopped = false;
+
+    /*
+     * One entry ready to be written: its header fields and where its
+     * bytes are, in memory, in a temp file, or still in the source file.
+     */
+    private static final class Prepared {
+        String name;
+        int method = ZipEntry.STORED;
+        long crc, size, compressed, time;
+        File source;
+        byte[] data;
+        File spill;
+        long offset;
+    }
+
+    /**
+     * @param parallelism	the number of files deflated at the same time
+     */
+    public ZipEngine(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Sets the tracker told about the bytes zipped or extracted.
+     */
+    public void setProgressTracker(ProgressTracker tracker) {
+        mTracker = tracker;
+    }
+
+    /**
+     * Sets the folder temp files are made in while zipping, e.g. the app's
+     * cache folder.
+     *
+     * @param dir	the folder, or null for the system's temp folder
+     */
+    public void setTempDir(File dir) {
+        mTempDir = dir;
+    }
+
+    /**
+     * Zips src, a file or a folder with everything in it, into zipFile. The
+     * names in the zip start with the name of src.
+     *
+     * @param src		the file or folder to zip
+     * @param zipFile	the zip to create, it must not exist
+     * @return	true if the whole zip was written, false if it was removed again
+     */
+    public boolean zip(File src, File zipFile) {
+        ArrayList<File> files = new ArrayList<File>();
+        ArrayList<String> names = new ArrayList<String>();
+        long total = 0;
+
+        if(!src.exists() || zipFile.exists())
+            return false;
+
+        collect(src, src.getName(), files, names);
+        for(File f : files)
+            total += f.isDirectory() ? 0 : f.length();
+
+        if(files.size() > MAX_ENTRIES) {
+            Log.e("ZipEngine", files.size() + " entries do not fit in a zip without zip64");
+            return false;
+        }
+
+        mTracker.setTotals(files.size(), total);
+
+        ExecutorService pool = Executors.newFixedThreadPool(mParallelism);
+        LinkedList<Future<Prepared>> window = new LinkedList<Future<Prepared>>();
+        ArrayList<File> spills = new ArrayList<File>();
+        ArrayList<Prepared> written = new ArrayList<Prepared>();
+        CountingOutputStream out = null;
+        boolean ok = false;
+        int next = 0;
+
+        mStopped = false;
+
+        try {
+            out = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(zipFile), BUFFER_SIZE));
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while(next < files.size() || !window.isEmpty()) {
+                /* keep a couple of entries per worker ready ahead of the writer */
+                while(next < files.size() && window.size() < mParallelism * 2) {
+                    window.add(pool.submit(prepare(files.get(next), names.get(next), spills)));
+                    next++;
+                }
+
+                Prepared p = window.removeFirst().get();
+                try {
+                    writeEntry(out, p, buffer);
+                } finally {
+                    deleteSpill(spills, p.spill);
+                }
+
+                p.data = null;
+                written.add(p);
+                mTracker.fileDone();
+            }
+
+            writeCentral(out, written);
+            ok = true;
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+
+        } catch (ExecutionException e) {
+            Log.e("ZipEngine", "zipping " + src.getPath(), e.getCause());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        } finally {
+            /*
+             * Entries not started are cancelled rather than waited for, and
+             * the ones being read stop at their next buffer. Their temp files
+             * are found through spills, not through the futures.
+             */
+            mStopped = true;
+            for(Future<Prepared> f : window)
+                f.cancel(true);
+            pool.shutdownNow();
+
+            try {
+                if(!pool.awaitTermination(10, TimeUnit.SECONDS))
+                    Log.e("ZipEngine", "workers still busy after zipping " + src.getPath());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized(spills) {
+                for(File spill : spills)
+                    spill.delete();
+                spills.clear();
+            }
+
+            try {
+                if(out != null)
+                    out.close();
+            } catch (IOException e) {
+                Log.e("IOException", e.getMessage());
+                ok = false;
+            }
+
+            if(!ok)
+                zipFile.delete();
+        }
+
+        return ok;
+    }
+
+    /**
+     * Extracts every entry of zipFile into destDir, creating folders as
+     * needed. Files already there are overwritten.
+     *
+     * @param zipFile	the zip to extract
+     * @param destDir	the folder to extract into
+     * @return	true if every entry was extracted
+     */
+    public boolean unzip(File zipFile, File destDir) {
+        HashSet<String> made = new HashSet<String>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ZipInputStream in = null;
+        boolean ok = true;
+
+        mTracker.setTotals(-1, zipFile.length());
+
+        try {
+            in = new ZipInputStream(new BufferedInputStream(
+                    new TrackingInputStream(new FileInputStream(zipFile)), BUFFER_SIZE));
+            ZipEntry entry;
+
+            if(!makeDirs(destDir, made))
+                return false;
+
+            while((entry = in.getNextEntry()) != null) {
+                String name = entry.getName();
+
+                if(!isSafe(name)) {
+                    Log.e("ZipEngine", "skipping " + name + ", it points outside the folder");
+                    ok = false;
+                    continue;
+                }
+
+                File target = new File(destDir, name);
+                mTracker.setCurrentFile(target.getPath());
+
+                if(entry.isDirectory()) {
+                    ok &= makeDirs(target, made);
+                    continue;
+                }
+
+                if(!makeDirs(target.getParentFile(), made)) {
+                    ok = false;
+                    continue;
+                }
+
+                OutputStream out = new FileOutputStream(target);
+                try {
+                    int n;
+                    while((n = in.read(buffer)) > 0)
+                        out.write(buffer, 0, n);
+                } finally {
+                    out.close();
+                }
+
+                if(entry.getTime() != -1)
+                    target.setLastModified(entry.getTime());
+                mTracker.fileDone();
+            }
+
+        } catch (IOException e) {
+            Log.e("IOException", e.getMessage());
+            ok = false;
+
+        } finally {
+            try {
+                if(in != null)
+                    in.close();
+            } catch (IOException e) {
+                Log.e("IOException", e.getMessage());
+            }
+        }
+
+        return ok;
+    }
+
+    /* (non-Javadoc)
+     * Lists file and everything under it, parents before children and in
+     * name order, so the zip comes out the same every time.
+     */
+    private static void collect(File file, String name, ArrayList<File> files, ArrayList<String> names) {
+        if(!file.isDirectory()) {
+            files.add(file);
+            names.add(name);
+            return;
+        }
+
+        files.add(file);
+        names.add(name + "/");
+
+        String[] list = file.list();
+        if(list == null)
+            return;
+
+        Arrays.sort(list);
+        for(String child : list) {
+            File sub = new File(file, child);
+
+            if(sub.isDirectory() && TreeWalker.isLink(sub))
+                continue;
+            collect(sub, name + "/" + child, files, names);
+        }
+    }
+
+    /* (non-Javadoc)
+     * The work done for one entry on a worker thread.
+     */
+    private Callable<Prepared> prepare(final File file, final String name, final ArrayList<File> spills) {
+        return new Callable<Prepared>() {
+            @Override
+            public Prepared call() throws IOException {
+                Prepared p = new Prepared();
+
+                p.name = name;
+                p.time = file.lastModified();
+                mTracker.setCurrentFile(file.getPath());
+
+                if(file.isDirectory())
+                    return p;
+
+                String lower = name.toLowerCase(Locale.ENGLISH);
+                String ext = lower.substring(lower.lastIndexOf('.') + 1);
+
+                if(STORED_TYPES.contains(ext))
+                    store(file, p);
+                else
+                    deflate(file, p, spills);
+
+                /* finished after the zip failed, nobody will write it */
+                if(mStopped) {
+                    deleteSpill(spills, p.spill);
+                    p.spill = null;
+                }
+
+                return p;
+            }
+        };
+    }
+
+    /* (non-Javadoc)
+     * Reads file once for its CRC; the writer copies it into the zip later.
+     */
+    private void store(File file, Prepared p) throws IOException {
+        InputStream in = new FileInputStream(file);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        CRC32 crc = new CRC32();
+        long size = 0;
+        int n;
+
+        try {
+            while((n = in.read(buffer)) > 0) {
+                checkStopped();
+                crc.update(buffer, 0, n);
+                size += n;
+                mTracker.addBytes(n);
+            }
+        } finally {
+            in.close();
+        }
+
+        p.method = ZipEntry.STORED;
+        p.crc = crc.getValue();
+        p.size = size;
+        p.compressed = size;
+        p.source = file;
+    }
+
+    /* (non-Javadoc)
+     * Deflates file into memory or a temp file. If that does not make it
+     * smaller the entry is stored instead.
+     */
+    private void deflate(File file, Prepared p, ArrayList<File> spills) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        SpillOutputStream sink = new SpillOutputStream(mTempDir, spills);
+        InputStream in = new FileInputStream(file);
+        byte[] buffer = new byte[BUFFER_SIZE / 4];
+        byte[] output = new byte[BUFFER_SIZE / 4];
+        CRC32 crc = new CRC32();
+        long size = 0;
+        int n;
+
+        try {
+            while((n = in.read(buffer)) > 0) {
+                checkStopped();
+                crc.update(buffer, 0, n);
+                size += n;
+                mTracker.addBytes(n);
+
+                deflater.setInput(buffer, 0, n);
+                while(!deflater.needsInput())
+                    sink.write(output, 0, deflater.deflate(output));
+            }
+
+            deflater.finish();
+            while(!deflater.finished())
+                sink.write(output, 0, deflater.deflate(output));
+
+        } catch (IOException e) {
+            sink.discard();
+            throw e;
+
+        } finally {
+            in.close();
+            sink.close();
+            deflater.end();
+        }
+
+        p.crc = crc.getValue();
+        p.size = size;
+
+        if(sink.getCount() >= size) {
+            sink.discard();
+            p.method = ZipEntry.STORED;
+            p.compressed = size;
+            p.source = file;
+            return;
+        }
+
+        p.method = ZipEntry.DEFLATED;
+        p.compressed = sink.getCount();
+        p.data = sink.getBytes();
+        p.spill = sink.getFile();
+    }
+
+    private void checkStopped() throws IOException {
+        if(mStopped)
+            throw new IOException("zip stopped");
+    }
+
+    /* (non-Javadoc)
+     * Deletes a temp file the writer is done with.
+     */
+    private static void deleteSpill(ArrayList<File> spills, File spill) {
+        if(spill == null)
+            return;
+
+        synchronized(spills) {
+            spills.remove(spill);
+        }
+        spill.delete();
+    }
+
+    private static void writeEntry(CountingOutputStream out, Prepared p, byte[] buffer) throws IOException {
+        byte[] name = p.name.getBytes(UTF8);
+
+        p.offset = out.getCount();
+        if(p.offset + p.compressed + 30 + name.length > MAX_OFFSET)
+            throw new IOException("zip grows past 4GB, zip64 is not supported");
+
+        writeInt(out, LOCAL_HEADER);
+        writeShort(out, VERSION);
+        writeShort(out, FLAG_UTF8);
+        writeShort(out, p.method);
+        writeInt(out, dosTime(p.time));
+        writeInt(out, (int)p.crc);
+        writeInt(out, (int)p.compressed);
+        writeInt(out, (int)p.size);
+        writeShort(out, name.length);
+        writeShort(out, 0);
+        out.write(name);
+
+        if(p.data != null) {
+            out.write(p.data);
+
+        } else if(p.spill != null || p.source != null) {
+            InputStream in = new FileInputStream(p.spill != null ? p.spill : p.source);
+            long copied = 0;
+            int n;
+
+            try {
+                while((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    copied += n;
+                }
+            } finally {
+                in.close();
+            }
+
+            if(copied != p.compressed)
+                throw new IOException(p.name + " changed while it was being zipped");
+        }
+    }
+
+    private static void writeCentral(CountingOutputStream out, ArrayList<Prepared> entries) throws IOException {
+        long start = out.getCount();
+
+        for(Prepared p : entries) {
+            byte[] name = p.name.getBytes(UTF8);
+
+            writeInt(out, CENTRAL_HEADER);
+            writeShort(out, VERSION);
+            writeShort(out, VERSION);
+            writeShort(out, FLAG_UTF8);
+            writeShort(out, p.method);
+            writeInt(out, dosTime(p.time));
+            writeInt(out, (int)p.crc);
+            writeInt(out, (int)p.compressed);
+            writeInt(out, (int)p.size);
+            writeShort(out, name.length);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeInt(out, p.name.endsWith("/") ? 0x10 : 0);
+            writeInt(out, (int)p.offset);
+            out.write(name);
+        }
+
+        long end = out.getCount();
+        if(end > MAX_OFFSET)
+            throw new IOException("zip grows past 4GB, zip64 is not supported");
+
+        writeInt(out, END_HEADER);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, entries.size());
+        writeShort(out, entries.size());
+        writeInt(out, (int)(end - start));
+        writeInt(out, (int)start);
+        writeShort(out, 0);
+    }
+
+    private static int dosTime(long time) {
+        Calendar c = Calendar.getInstance();
+
+        c.setTimeInMillis(time);
+        if(c.get(Calendar.YEAR) < 1980)
+            return (1 << 21) | (1 << 16);
+
+        return ((c.get(Calendar.YEAR) - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21) |
+                (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11) |
+                (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    private static void writeShort(OutputStream out, int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        writeShort(out, v & 0xffff);
+        writeShort(out, (v >>> 16) & 0xffff);
+    }
+
+    /* (non-Javadoc)
+     * Entry names are checked as text, without asking the file system, so
+     * extracting costs no extra lookups per entry.
+     */
+    private static boolean isSafe(String name) {
+        if(name.length() == 0 || name.startsWith("/") || name.indexOf('\\') >= 0)
+            return false;
+
+        for(String part : name.split("/"))
+            if(part.equals(".."))
+                return false;
+
+        return true;
+    }
+
+    private static boolean makeDirs(File dir, HashSet<String> made) {
+        String path = dir.getPath();
+
+        if(made.contains(path))
+            return true;
+
+        if(dir.isDirectory() || dir.mkdirs()) {
+            made.add(path);
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Counts the bytes written, which gives each entry's offset.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mOut.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            mOut.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException {
+            write(b, 0, b.length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    /*
+     * Holds bytes in memory up to SPILL_SIZE and in a temp file after that.
+     * The temp file is added to spills as soon as it is made.
+     */
+    private static final class SpillOutputStream extends OutputStream {
+        private final File mDir;
+        private final ArrayList<File> mSpills;
+        private ByteArrayOutputStream mMemory = new ByteArrayOutputStream();
+        private File mFile;
+        private OutputStream mOut;
+        private long mCount = 0;
+
+        SpillOutputStream(File dir, ArrayList<File> spills) {
+            mDir = dir;
+            mSpills = spills;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return;
+
+            if(mOut == null && mCount + len > SPILL_SIZE) {
+                mFile = File.createTempFile("zip", ".part", mDir);
+                synchronized(mSpills) {
+                    mSpills.add(mFile);
+                }
+                mOut = new BufferedOutputStream(new FileOutputStream(mFile), BUFFER_SIZE / 4);
+                mMemory.writeTo(mOut);
+                mMemory = null;
+            }
+
+            if(mOut != null)
+                mOut.write(b, off, len);
+            else
+                mMemory.write(b, off, len);
+            mCount += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(mOut != null)
+                mOut.close();
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        byte[] getBytes() {
+            return mMemory == null ? null : mMemory.toByteArray();
+        }
+
+        File getFile() {
+            return mFile;
+        }
+
+        void discard() {
+            mMemory = null;
+            if(mFile != null) {
+                try {
+                    close();
+                } catch (IOException e) {
+                    /* deleted below either way */
+                }
+                deleteSpill(mSpills, mFile);
+                mFile = null;
+            }
+        }
+    }
+
+    /*
+     * Tells the tracker how much of the zip has been read.
+     */
+    private final class TrackingInputStream extends FilterInputStream {
+        TrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if(b >= 0)
+                mTracker.addBytes(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+
+            if(n > 0)
+                mTracker.addBytes(n);
+            return n;
+        }
+    }
+}